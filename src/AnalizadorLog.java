@@ -0,0 +1,513 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Herramienta fuera de línea para analizar el log del servidor (chat.log).
+ * Lee las líneas que escribe Servidor.registrarLog ("[fecha] CONEXIÓN: nick", "DESCONEXIÓN: nick",
+ * "EXPULSIÓN: nick | Motivo: ...", "INICIO DEL SERVIDOR") y calcula duración de las sesiones,
+ * usuarios simultáneos a lo largo del tiempo, estadísticas de expulsiones y picos de conexiones.
+ *
+ * Los archivos se proyectan en memoria (mmap) y se parten en trozos que terminan siempre en un
+ * salto de línea; los trozos se analizan en paralelo y se agregan en orden según van terminando.
+ * Solo hay unos pocos trozos en memoria a la vez, así que el heap no depende del tamaño del log.
+ * Si se indica 'chat.log' también se leen antes sus rotaciones 'chat.log.N' (de la más antigua a la más nueva).
+ *
+ * Uso: java AnalizadorLog [--seguir] [--curva curva.csv] [--intervalo segundos] chat.log [otros.log ...]
+ */
+public class AnalizadorLog {
+    private static final int TAMANO_TROZO = 8 * 1024 * 1024;
+    private static final DateTimeFormatter FORMATO_FECHA_LOG = DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss zzz yyyy", Locale.US);
+    // Posición de HH:mm:ss dentro de "EEE MMM dd HH:mm:ss zzz yyyy" (formato de Date.toString)
+    private static final int POSICION_HORA = 11;
+    private static final DateTimeFormatter FORMATO_SALIDA = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static final byte CONEXION = 1;
+    private static final byte DESCONEXION = 2;
+    private static final byte EXPULSION = 3;
+    private static final byte INICIO = 4;
+
+    private static final byte[] PREFIJO_CONEXION = "CONEXIÓN: ".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] PREFIJO_DESCONEXION = "DESCONEXIÓN: ".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] PREFIJO_EXPULSION = "EXPULSIÓN: ".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] PREFIJO_INICIO = "INICIO DEL SERVIDOR".getBytes(StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        boolean seguir = false;
+        String rutaCurva = null;
+        long intervaloCurva = 60;
+        List<Path> archivos = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--seguir": seguir = true; break;
+                case "--curva": rutaCurva = args[++i]; break;
+                case "--intervalo": intervaloCurva = Long.parseLong(args[++i]); break;
+                default: archivos.addAll(conRotaciones(Paths.get(args[i])));
+            }
+        }
+        if (archivos.isEmpty()) {
+            System.out.println("Uso: java AnalizadorLog [--seguir] [--curva curva.csv] [--intervalo segundos] chat.log [otros.log ...]");
+            return;
+        }
+
+        Estadisticas estadisticas = new Estadisticas(intervaloCurva * 1000);
+        long inicio = System.nanoTime();
+        long bytesLeidos = 0;
+        int procesadores = Runtime.getRuntime().availableProcessors();
+        try (ExecutorService analizadores = Executors.newFixedThreadPool(procesadores)) {
+            for (Path archivo : archivos) {
+                // Un trozo por hilo más el que se está agregando
+                analizarEnParalelo(archivo, analizadores, procesadores + 1, estadisticas);
+                bytesLeidos += Files.size(archivo);
+            }
+        }
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+
+        System.out.printf("Analizados %d archivos (%.1f MB) en %.2fs%n%n", archivos.size(), bytesLeidos / 1e6, segundos);
+        estadisticas.imprimirResumen(System.out);
+        if (rutaCurva != null) {
+            try (PrintWriter curva = new PrintWriter(new FileWriter(rutaCurva))) {
+                estadisticas.escribirCurva(curva);
+            }
+            System.out.println("Curva de usuarios simultáneos guardada en " + rutaCurva);
+        }
+
+        if (seguir) seguir(archivos.get(archivos.size() - 1), estadisticas);
+    }
+
+    /**
+     * Devuelve las rotaciones existentes de un log (base.N, ..., base.2, base.1) seguidas del propio log.
+     */
+    private static List<Path> conRotaciones(Path base) {
+        List<Path> rotaciones = new ArrayList<>();
+        for (int n = 1; Files.exists(Paths.get(base + "." + n)); n++)
+            rotaciones.add(0, Paths.get(base + "." + n));
+        rotaciones.add(base);
+        return rotaciones;
+    }
+
+    /**
+     * Parte el archivo en trozos que acaban en salto de línea, los analiza en paralelo y los agrega
+     * en el orden del archivo. Como mucho hay 'trozosEnVuelo' trozos analizándose o esperando a ser
+     * agregados; cada uno se suelta en cuanto se agrega.
+     */
+    private static void analizarEnParalelo(Path archivo, ExecutorService analizadores, int trozosEnVuelo,
+                                           Estadisticas estadisticas) throws IOException, InterruptedException {
+        try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            long tamano = canal.size();
+            ArrayDeque<Future<Trozo>> pendientes = new ArrayDeque<>();
+            long posicion = 0;
+            while (posicion < tamano || !pendientes.isEmpty()) {
+                if (posicion < tamano && pendientes.size() < trozosEnVuelo) {
+                    long desde = posicion;
+                    posicion = siguienteFinDeLinea(canal, Math.min(posicion + TAMANO_TROZO, tamano), tamano);
+                    MappedByteBuffer datos = canal.map(FileChannel.MapMode.READ_ONLY, desde, posicion - desde);
+                    pendientes.add(analizadores.submit(() -> analizar(datos)));
+                } else {
+                    try {
+                        estadisticas.agregar(pendientes.poll().get());
+                    } catch (ExecutionException e) {
+                        for (Future<Trozo> pendiente : pendientes) pendiente.cancel(true);
+                        throw new IllegalStateException("Error analizando " + archivo, e.getCause());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Devuelve la posición justo después del primer '\n' a partir de 'desde' (o el final del archivo).
+     */
+    private static long siguienteFinDeLinea(FileChannel canal, long desde, long tamano) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long posicion = desde;
+        while (posicion < tamano) {
+            buffer.clear();
+            int leidos = canal.read(buffer, posicion);
+            if (leidos <= 0) break;
+            for (int i = 0; i < leidos; i++) {
+                if (buffer.get(i) == '\n') return posicion + i + 1;
+            }
+            posicion += leidos;
+        }
+        return tamano;
+    }
+
+    /**
+     * Analiza un trozo proyectado en memoria. Solo se decodifican los nicks y motivos.
+     * La fecha completa solo se parsea cuando cambia el día (o la zona horaria); para el resto
+     * de líneas basta con leer HH:mm:ss y sumarlo al inicio del día ya calculado.
+     */
+    private static Trozo analizar(MappedByteBuffer datos) {
+        Trozo trozo = new Trozo();
+        byte[] ultimaFecha = new byte[0];
+        long inicioDia = 0;
+        int limite = datos.limit();
+        int inicioLinea = 0;
+
+        while (inicioLinea < limite) {
+            int finLinea = inicioLinea;
+            while (finLinea < limite && datos.get(finLinea) != '\n') finLinea++;
+            int fin = finLinea > inicioLinea && datos.get(finLinea - 1) == '\r' ? finLinea - 1 : finLinea;
+
+            // [fecha] mensaje
+            if (fin > inicioLinea && datos.get(inicioLinea) == '[') {
+                int cierre = inicioLinea + 1;
+                while (cierre < fin && datos.get(cierre) != ']') cierre++;
+                int inicioMensaje = cierre + 2;
+                byte tipo = tipoEvento(datos, inicioMensaje, fin);
+
+                int longitudFecha = cierre - inicioLinea - 1;
+                if (tipo != 0 && inicioMensaje <= fin && longitudFecha > POSICION_HORA + 8) {
+                    int inicioFecha = inicioLinea + 1;
+                    if (!mismoDia(datos, inicioFecha, longitudFecha, ultimaFecha)) {
+                        byte[] fecha = new byte[longitudFecha];
+                        datos.get(inicioFecha, fecha);
+                        try {
+                            long marcaCompleta = ZonedDateTime.parse(new String(fecha, StandardCharsets.UTF_8), FORMATO_FECHA_LOG).toInstant().toEpochMilli();
+                            inicioDia = marcaCompleta - segundosDelDia(datos, inicioFecha) * 1000;
+                            ultimaFecha = fecha;
+                        } catch (DateTimeParseException e) {
+                            // Línea corrupta: se ignora
+                            inicioLinea = finLinea + 1;
+                            continue;
+                        }
+                    }
+                    long ultimaMarca = inicioDia + segundosDelDia(datos, inicioFecha) * 1000;
+
+                    String nick = null;
+                    String motivo = null;
+                    if (tipo != INICIO) {
+                        int inicioNick = inicioMensaje + prefijo(tipo).length;
+                        String resto = texto(datos, inicioNick, fin);
+                        if (tipo == EXPULSION) {
+                            int separador = resto.indexOf(" | Motivo: ");
+                            nick = separador >= 0 ? resto.substring(0, separador) : resto;
+                            motivo = trozo.unico(separador >= 0 ? resto.substring(separador + " | Motivo: ".length()) : "");
+                        } else {
+                            nick = resto;
+                        }
+                        nick = trozo.unico(nick);
+                    }
+                    trozo.anadir(ultimaMarca, tipo, nick, motivo);
+                }
+            }
+            inicioLinea = finLinea + 1;
+        }
+        return trozo;
+    }
+
+    private static byte tipoEvento(MappedByteBuffer datos, int desde, int hasta) {
+        if (empiezaPor(datos, desde, hasta, PREFIJO_CONEXION)) return CONEXION;
+        if (empiezaPor(datos, desde, hasta, PREFIJO_DESCONEXION)) return DESCONEXION;
+        if (empiezaPor(datos, desde, hasta, PREFIJO_EXPULSION)) return EXPULSION;
+        if (empiezaPor(datos, desde, hasta, PREFIJO_INICIO)) return INICIO;
+        return 0;
+    }
+
+    private static byte[] prefijo(byte tipo) {
+        switch (tipo) {
+            case CONEXION: return PREFIJO_CONEXION;
+            case DESCONEXION: return PREFIJO_DESCONEXION;
+            case EXPULSION: return PREFIJO_EXPULSION;
+            default: return PREFIJO_INICIO;
+        }
+    }
+
+    private static boolean empiezaPor(MappedByteBuffer datos, int desde, int hasta, byte[] prefijo) {
+        if (hasta - desde < prefijo.length) return false;
+        for (int i = 0; i < prefijo.length; i++)
+            if (datos.get(desde + i) != prefijo[i]) return false;
+        return true;
+    }
+
+    /**
+     * Compara una fecha del log con la anterior sin tener en cuenta HH:mm:ss.
+     */
+    private static boolean mismoDia(MappedByteBuffer datos, int desde, int longitud, byte[] anterior) {
+        if (longitud != anterior.length) return false;
+        for (int i = 0; i < longitud; i++) {
+            if (i >= POSICION_HORA && i < POSICION_HORA + 8) continue;
+            if (datos.get(desde + i) != anterior[i]) return false;
+        }
+        return true;
+    }
+
+    private static long segundosDelDia(MappedByteBuffer datos, int inicioFecha) {
+        int h = inicioFecha + POSICION_HORA;
+        return dosDigitos(datos, h) * 3600L + dosDigitos(datos, h + 3) * 60L + dosDigitos(datos, h + 6);
+    }
+
+    private static int dosDigitos(MappedByteBuffer datos, int posicion) {
+        return (datos.get(posicion) - '0') * 10 + (datos.get(posicion + 1) - '0');
+    }
+
+    private static String texto(MappedByteBuffer datos, int desde, int hasta) {
+        byte[] bytes = new byte[Math.max(0, hasta - desde)];
+        datos.get(desde, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Sigue el log en vivo: cada segundo analiza solo las líneas nuevas y muestra el estado.
+     * Si el archivo encoge (se ha rotado) vuelve a empezar desde el principio del nuevo.
+     */
+    private static void seguir(Path archivo, Estadisticas estadisticas) throws IOException, InterruptedException {
+        long posicion = Files.size(archivo);
+        System.out.println("\nSiguiendo " + archivo + " (Ctrl+C para salir)...");
+        while (true) {
+            Thread.sleep(1000);
+            if (!Files.exists(archivo)) continue;
+            try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+                long tamano = canal.size();
+                if (tamano < posicion) posicion = 0;
+                if (tamano == posicion) continue;
+
+                // Solo hasta la última línea completa; el resto se lee en la siguiente vuelta
+                MappedByteBuffer nuevo = canal.map(FileChannel.MapMode.READ_ONLY, posicion, tamano - posicion);
+                int ultimoSalto = nuevo.limit() - 1;
+                while (ultimoSalto >= 0 && nuevo.get(ultimoSalto) != '\n') ultimoSalto--;
+                if (ultimoSalto < 0) continue;
+
+                estadisticas.agregar(analizar(canal.map(FileChannel.MapMode.READ_ONLY, posicion, ultimoSalto + 1)));
+                posicion += ultimoSalto + 1;
+                estadisticas.imprimirEstado(System.out);
+            }
+        }
+    }
+
+    /**
+     * Eventos extraídos de un trozo, en arrays paralelos para no crear un objeto por línea.
+     * Los nicks y motivos repetidos comparten la misma instancia de String.
+     */
+    private static class Trozo {
+        long[] marcas = new long[1024];
+        byte[] tipos = new byte[1024];
+        String[] nicks = new String[1024];
+        String[] motivos = new String[1024];
+        int cantidad;
+        private final Map<String, String> textosUnicos = new HashMap<>();
+
+        String unico(String texto) {
+            String anterior = textosUnicos.putIfAbsent(texto, texto);
+            return anterior != null ? anterior : texto;
+        }
+
+        void anadir(long marca, byte tipo, String nick, String motivo) {
+            if (cantidad == marcas.length) {
+                int nuevaCapacidad = cantidad * 2;
+                marcas = Arrays.copyOf(marcas, nuevaCapacidad);
+                tipos = Arrays.copyOf(tipos, nuevaCapacidad);
+                nicks = Arrays.copyOf(nicks, nuevaCapacidad);
+                motivos = Arrays.copyOf(motivos, nuevaCapacidad);
+            }
+            marcas[cantidad] = marca;
+            tipos[cantidad] = tipo;
+            nicks[cantidad] = nick;
+            motivos[cantidad++] = motivo;
+        }
+    }
+
+    /**
+     * Agregados que se actualizan evento a evento, en el orden del log.
+     */
+    private static class Estadisticas {
+        private final long intervaloCurvaMs;
+        private final Map<String, Long> sesionesAbiertas = new HashMap<>();
+        // En segundos (la resolución del log): la mitad de memoria que en milisegundos con long
+        private int[] duraciones = new int[1024];
+        private int numeroSesiones;
+        private int sesionesCortadas;
+        private int reinicios;
+        private long primeraMarca = Long.MAX_VALUE;
+        private long ultimaMarca;
+
+        private int maximoSimultaneos;
+        private long momentoMaximoSimultaneos;
+        private final TreeMap<Long, Integer> curva = new TreeMap<>();
+        // Usuarios conectados al terminar cada intervalo, para rellenar los intervalos sin eventos
+        private final TreeMap<Long, Integer> finalesCurva = new TreeMap<>();
+
+        private long segundoActual = -1;
+        private int conexionesSegundo;
+        private int picoPorSegundo;
+        private long momentoPicoSegundo;
+        private long minutoActual = -1;
+        private int conexionesMinuto;
+        private int picoPorMinuto;
+        private long momentoPicoMinuto;
+        private long totalConexiones;
+
+        private int totalExpulsiones;
+        private final Map<String, Integer> expulsionesPorUsuario = new HashMap<>();
+        private final Map<String, Integer> expulsionesPorMotivo = new HashMap<>();
+
+        Estadisticas(long intervaloCurvaMs) {
+            this.intervaloCurvaMs = intervaloCurvaMs;
+        }
+
+        void agregar(Trozo trozo) {
+            for (int i = 0; i < trozo.cantidad; i++)
+                procesar(trozo.marcas[i], trozo.tipos[i], trozo.nicks[i], trozo.motivos[i]);
+        }
+
+        private void procesar(long marca, byte tipo, String nick, String motivo) {
+            primeraMarca = Math.min(primeraMarca, marca);
+            ultimaMarca = Math.max(ultimaMarca, marca);
+
+            switch (tipo) {
+                case CONEXION:
+                    contarConexion(marca);
+                    if (sesionesAbiertas.putIfAbsent(nick, marca) == null) actualizarSimultaneos(marca);
+                    break;
+                case DESCONEXION:
+                    // Las desconexiones sin conexión previa son logins que no llegaron a completarse
+                    Long inicio = sesionesAbiertas.remove(nick);
+                    if (inicio != null) {
+                        anotarDuracion(marca - inicio);
+                        actualizarSimultaneos(marca);
+                    }
+                    break;
+                case EXPULSION:
+                    totalExpulsiones++;
+                    expulsionesPorUsuario.merge(nick, 1, Integer::sum);
+                    expulsionesPorMotivo.merge(motivo, 1, Integer::sum);
+                    break;
+                case INICIO:
+                    // Un reinicio cierra todas las sesiones que seguían abiertas
+                    reinicios++;
+                    for (long inicioAbierta : sesionesAbiertas.values()) {
+                        anotarDuracion(marca - inicioAbierta);
+                        sesionesCortadas++;
+                    }
+                    sesionesAbiertas.clear();
+                    actualizarSimultaneos(marca);
+                    break;
+            }
+        }
+
+        private void contarConexion(long marca) {
+            totalConexiones++;
+            long segundo = marca / 1000;
+            if (segundo != segundoActual) {
+                segundoActual = segundo;
+                conexionesSegundo = 0;
+            }
+            if (++conexionesSegundo > picoPorSegundo) {
+                picoPorSegundo = conexionesSegundo;
+                momentoPicoSegundo = marca;
+            }
+            long minuto = marca / 60000;
+            if (minuto != minutoActual) {
+                minutoActual = minuto;
+                conexionesMinuto = 0;
+            }
+            if (++conexionesMinuto > picoPorMinuto) {
+                picoPorMinuto = conexionesMinuto;
+                momentoPicoMinuto = marca;
+            }
+        }
+
+        private void actualizarSimultaneos(long marca) {
+            int actuales = sesionesAbiertas.size();
+            if (actuales > maximoSimultaneos) {
+                maximoSimultaneos = actuales;
+                momentoMaximoSimultaneos = marca;
+            }
+            long intervalo = marca - marca % intervaloCurvaMs;
+            curva.merge(intervalo, actuales, Math::max);
+            finalesCurva.put(intervalo, actuales);
+        }
+
+        private void anotarDuracion(long duracion) {
+            if (numeroSesiones == duraciones.length) duraciones = Arrays.copyOf(duraciones, numeroSesiones * 2);
+            duraciones[numeroSesiones++] = (int) (duracion / 1000);
+        }
+
+        void imprimirResumen(PrintStream salida) {
+            if (totalConexiones == 0 && reinicios == 0) {
+                salida.println("No se han encontrado eventos en el log.");
+                return;
+            }
+            salida.println("Periodo: " + fecha(primeraMarca) + " -> " + fecha(ultimaMarca) + " | Reinicios del servidor: " + reinicios);
+
+            salida.println("\n=== SESIONES ===");
+            // El orden de las duraciones no importa: se ordenan en el sitio en vez de copiarlas
+            Arrays.sort(duraciones, 0, numeroSesiones);
+            salida.println("Conexiones: " + totalConexiones + " | Sesiones cerradas: " + numeroSesiones +
+                    " (cortadas por reinicio: " + sesionesCortadas + ") | Abiertas al final: " + sesionesAbiertas.size());
+            if (numeroSesiones > 0) {
+                long suma = 0;
+                for (int i = 0; i < numeroSesiones; i++) suma += duraciones[i];
+                salida.println("Duración media: " + duracion(suma * 1000 / numeroSesiones) + " | Mediana: " + duracion(percentil(50)) +
+                        " | P90: " + duracion(percentil(90)) + " | P99: " + duracion(percentil(99)) +
+                        " | Máxima: " + duracion(duraciones[numeroSesiones - 1] * 1000L));
+            }
+
+            salida.println("\n=== USUARIOS SIMULTÁNEOS ===");
+            salida.println("Máximo: " + maximoSimultaneos + " (" + fecha(momentoMaximoSimultaneos) + ")");
+
+            salida.println("\n=== PICOS DE CONEXIONES ===");
+            salida.println("Por segundo: " + picoPorSegundo + " (" + fecha(momentoPicoSegundo) + ")");
+            salida.println("Por minuto:  " + picoPorMinuto + " (" + fecha(momentoPicoMinuto) + ")");
+
+            salida.println("\n=== EXPULSIONES ===");
+            salida.println("Total: " + totalExpulsiones);
+            imprimirRanking(salida, "Usuarios más expulsados", expulsionesPorUsuario);
+            imprimirRanking(salida, "Motivos más frecuentes", expulsionesPorMotivo);
+        }
+
+        void imprimirEstado(PrintStream salida) {
+            salida.println("[" + fecha(ultimaMarca) + "] conectados=" + sesionesAbiertas.size() + " conexiones/min=" +
+                    (ultimaMarca / 60000 == minutoActual ? conexionesMinuto : 0) + " sesiones=" + numeroSesiones +
+                    " expulsiones=" + totalExpulsiones);
+        }
+
+        /**
+         * Escribe un punto por intervalo, del primero al último. Cada intervalo empieza con los
+         * usuarios que quedaban conectados al final del anterior, así que los intervalos sin eventos
+         * no dejan huecos y uno que empieza con gente no puede quedar por debajo de ella.
+         */
+        void escribirCurva(PrintWriter salida) {
+            salida.println("momento,usuarios_simultaneos_max");
+            if (curva.isEmpty()) return;
+            int conectados = 0;
+            for (long intervalo = curva.firstKey(); intervalo <= curva.lastKey(); intervalo += intervaloCurvaMs) {
+                Integer maximo = curva.get(intervalo);
+                salida.println(fecha(intervalo) + "," + (maximo != null ? Math.max(maximo, conectados) : conectados));
+                if (maximo != null) conectados = finalesCurva.get(intervalo);
+            }
+        }
+
+        private static void imprimirRanking(PrintStream salida, String titulo, Map<String, Integer> conteos) {
+            if (conteos.isEmpty()) return;
+            salida.println(titulo + ":");
+            conteos.entrySet().stream()
+                    .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+                    .limit(10)
+                    .forEach(e -> salida.println("  " + e.getValue() + "  " + e.getKey()));
+        }
+
+        private long percentil(int p) {
+            return duraciones[Math.min(numeroSesiones - 1, (int) ((long) numeroSesiones * p / 100))] * 1000L;
+        }
+
+        private static String fecha(long marca) {
+            return FORMATO_SALIDA.format(Instant.ofEpochMilli(marca).atZone(ZoneId.systemDefault()));
+        }
+
+        private static String duracion(long ms) {
+            long s = ms / 1000;
+            return String.format("%dh %02dm %02ds", s / 3600, (s / 60) % 60, s % 60);
+        }
+    }
+}
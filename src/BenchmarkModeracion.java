@@ -0,0 +1,90 @@
+import java.util.*;
+
+/**
+ * Mide el coste por mensaje del filtro de moderación y lo compara con el enfoque
+ * ingenuo de llamar a contains() una vez por cada palabra prohibida.
+ *
+ * Uso: java BenchmarkModeracion [palabras] [mensajes] [semilla]
+ */
+public class BenchmarkModeracion {
+
+    public static void main(String[] args) {
+        int numeroPalabras = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int numeroMensajes = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        long semilla = args.length > 2 ? Long.parseLong(args[2]) : 42;
+        Random aleatorio = new Random(semilla);
+
+        // Palabras prohibidas aleatorias con las tres acciones
+        Map<String, FiltroModeracion.Accion> patrones = new LinkedHashMap<>();
+        FiltroModeracion.Accion[] acciones = {FiltroModeracion.Accion.OCULTAR, FiltroModeracion.Accion.RECHAZAR, FiltroModeracion.Accion.EXPULSAR};
+        while (patrones.size() < numeroPalabras)
+            patrones.put(palabraAleatoria(aleatorio), acciones[aleatorio.nextInt(acciones.length)]);
+        List<String> prohibidas = new ArrayList<>(patrones.keySet());
+
+        // Mensajes de unas 12 palabras; aproximadamente 1 de cada 20 contiene una palabra prohibida
+        String[] mensajes = new String[numeroMensajes];
+        for (int i = 0; i < numeroMensajes; i++) {
+            StringBuilder mensaje = new StringBuilder();
+            for (int j = 0; j < 12; j++) {
+                if (j > 0) mensaje.append(' ');
+                mensaje.append(aleatorio.nextInt(240) == 0 ? prohibidas.get(aleatorio.nextInt(prohibidas.size())) : palabraAleatoria(aleatorio));
+            }
+            mensajes[i] = mensaje.toString();
+        }
+
+        long inicio = System.nanoTime();
+        FiltroModeracion filtro = new FiltroModeracion("");
+        filtro.cargar(patrones);
+        long compilacion = System.nanoTime() - inicio;
+        System.out.printf("Autómata con %d palabras compilado en %.1f ms%n", numeroPalabras, compilacion / 1e6);
+
+        // Calentamiento para que el JIT compile ambos caminos
+        for (int ronda = 0; ronda < 3; ronda++) {
+            medirAutomata(filtro, mensajes);
+            medirIngenuo(prohibidas, mensajes, Math.min(numeroMensajes, 2000));
+        }
+
+        inicio = System.nanoTime();
+        int bloqueados = medirAutomata(filtro, mensajes);
+        double nsAutomata = (System.nanoTime() - inicio) / (double) numeroMensajes;
+
+        int muestraIngenua = Math.min(numeroMensajes, 10000);
+        inicio = System.nanoTime();
+        medirIngenuo(prohibidas, mensajes, muestraIngenua);
+        double nsIngenuo = (System.nanoTime() - inicio) / (double) muestraIngenua;
+
+        System.out.printf("Aho-Corasick: %.0f ns/mensaje (%.0f mensajes/s), %d mensajes con coincidencias%n", nsAutomata, 1e9 / nsAutomata, bloqueados);
+        System.out.printf("contains():   %.0f ns/mensaje (%.0f mensajes/s)%n", nsIngenuo, 1e9 / nsIngenuo);
+        System.out.printf("Mejora:       x%.1f%n", nsIngenuo / nsAutomata);
+    }
+
+    private static int medirAutomata(FiltroModeracion filtro, String[] mensajes) {
+        int conCoincidencias = 0;
+        for (String mensaje : mensajes) {
+            if (filtro.filtrar(mensaje).accion != FiltroModeracion.Accion.NINGUNA) conCoincidencias++;
+        }
+        return conCoincidencias;
+    }
+
+    private static int medirIngenuo(List<String> prohibidas, String[] mensajes, int cuantos) {
+        int conCoincidencias = 0;
+        for (int i = 0; i < cuantos; i++) {
+            String mensaje = mensajes[i].toLowerCase();
+            for (String palabra : prohibidas) {
+                if (mensaje.contains(palabra)) {
+                    conCoincidencias++;
+                    break;
+                }
+            }
+        }
+        return conCoincidencias;
+    }
+
+    private static String palabraAleatoria(Random aleatorio) {
+        int longitud = 4 + aleatorio.nextInt(7);
+        char[] letras = new char[longitud];
+        for (int i = 0; i < longitud; i++)
+            letras[i] = (char) ('a' + aleatorio.nextInt(26));
+        return new String(letras);
+    }
+}
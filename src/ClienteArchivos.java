@@ -0,0 +1,133 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parte del cliente para /envia_archivo y /descarga.
+ * El hilo escritor traduce "/envia_archivo <ruta>" al formato que espera el servidor y
+ * el hilo lector reconoce las respuestas "ARCHIVO ..." para lanzar la transferencia
+ * por el canal de datos en un hilo aparte, sin bloquear el chat.
+ */
+public class ClienteArchivos {
+    private static final Path CARPETA_DESCARGAS = Paths.get("descargas");
+
+    private final String host;
+    private final Map<String, Path> subidasPendientes = new ConcurrentHashMap<>();
+
+    public ClienteArchivos(String host) {
+        this.host = host;
+    }
+
+    /**
+     * Convierte "/envia_archivo <ruta>" en "/envia_archivo <tamaño> <nombre>" y recuerda la ruta
+     * para cuando el servidor dé permiso. Cualquier otra línea se devuelve sin cambios.
+     * devuelve null si el archivo local no se puede leer (ya se ha avisado al usuario).
+     */
+    public String prepararComando(String entrada) {
+        if (!entrada.toLowerCase().startsWith("/envia_archivo ")) return entrada;
+
+        Path ruta = Paths.get(entrada.substring("/envia_archivo ".length()).trim());
+        try {
+            long tamano = Files.size(ruta);
+            String nombre = ruta.getFileName().toString();
+            subidasPendientes.put(nombre, ruta);
+            return "/envia_archivo " + tamano + " " + nombre;
+        } catch (IOException e) {
+            System.out.println("Aviso: No se puede leer el archivo " + ruta);
+            return null;
+        }
+    }
+
+    /**
+     * Atiende las órdenes de transferencia del servidor.
+     * devuelve true si la línea era una orden "ARCHIVO ..." (y por tanto no hay que mostrarla).
+     */
+    public boolean procesarLinea(String linea) {
+        if (!linea.startsWith("ARCHIVO ")) return false;
+
+        if (linea.startsWith("ARCHIVO SUBIR ")) {
+            // ARCHIVO SUBIR <token> <puerto> <nombre>
+            String[] partes = linea.split(" ", 5);
+            if (partes.length < 5) return true;
+            String token = partes[2];
+            int puerto = Integer.parseInt(partes[3]);
+            Path ruta = subidasPendientes.remove(partes[4]);
+            if (ruta != null) {
+                System.out.println("SISTEMA: Subiendo '" + partes[4] + "'...");
+                new Thread(() -> subir(token, puerto, ruta), "subida-archivo").start();
+            }
+        } else if (linea.startsWith("ARCHIVO DESCARGAR ")) {
+            // ARCHIVO DESCARGAR <token> <puerto> <tamaño> <nombre>
+            String[] partes = linea.split(" ", 6);
+            if (partes.length < 6) return true;
+            String token = partes[2];
+            int puerto = Integer.parseInt(partes[3]);
+            long tamano = Long.parseLong(partes[4]);
+            // El nombre lo eligió otro usuario: no se le permite salir de la carpeta de descargas
+            String nombre = partes[5].replaceAll("[\\\\/:]", "_");
+            if (nombre.equals(".") || nombre.equals("..")) nombre = "_";
+            String nombreFinal = nombre;
+            System.out.println("SISTEMA: Descargando '" + nombre + "' (" + tamano + " bytes)...");
+            new Thread(() -> descargar(token, puerto, tamano, nombreFinal), "descarga-archivo").start();
+        }
+        return true;
+    }
+
+    /**
+     * Envía el archivo con FileChannel.transferTo, que copia del disco al socket sin pasar por el heap.
+     */
+    private void subir(String token, int puerto, Path ruta) {
+        try (SocketChannel canal = abrirCanal(puerto, "SUBIR " + token);
+             FileChannel origen = FileChannel.open(ruta, StandardOpenOption.READ)) {
+            long tamano = origen.size();
+            long enviados = 0;
+            while (enviados < tamano)
+                enviados += origen.transferTo(enviados, tamano - enviados, canal);
+        } catch (IOException e) {
+            System.out.println("ERROR: Falló la subida de " + ruta + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Guarda el archivo en la carpeta 'descargas' con FileChannel.transferFrom.
+     */
+    private void descargar(String token, int puerto, long tamano, String nombre) {
+        Path destino = CARPETA_DESCARGAS.resolve(nombre);
+        try {
+            Files.createDirectories(CARPETA_DESCARGAS);
+            long recibidos = 0;
+            try (SocketChannel canal = abrirCanal(puerto, "DESCARGAR " + token);
+                 FileChannel salida = FileChannel.open(destino, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (recibidos < tamano) {
+                    long leidos = salida.transferFrom(canal, recibidos, tamano - recibidos);
+                    if (leidos <= 0) break;
+                    recibidos += leidos;
+                }
+            }
+            if (recibidos < tamano) {
+                Files.deleteIfExists(destino);
+                System.out.println("ERROR: Descarga de '" + nombre + "' incompleta.");
+            } else {
+                System.out.println("SISTEMA: Descargado en " + destino);
+            }
+        } catch (IOException e) {
+            System.out.println("ERROR: Falló la descarga de '" + nombre + "': " + e.getMessage());
+        }
+    }
+
+    private SocketChannel abrirCanal(int puerto, String cabecera) throws IOException {
+        SocketChannel canal = SocketChannel.open(new InetSocketAddress(host, puerto));
+        ByteBuffer bytesCabecera = ByteBuffer.wrap((cabecera + "\n").getBytes(StandardCharsets.US_ASCII));
+        while (bytesCabecera.hasRemaining()) canal.write(bytesCabecera);
+        return canal;
+    }
+}
@@ -2,16 +2,19 @@ import java.io.*;
 import java.net.*;
 import java.util.Properties;
 import java.util.Scanner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Esta clase gestiona la parte del usuario:
  * Lee la configuración de conexión (IP y puerto) desde 'chat.properties'.
- * Intenta conectar con el servidor (con sistema de reintentos).
+ * Intenta conectar con el servidor (con sistema de reintentos, respetando el tiempo que pida si está lleno).
  * Crea dos hilos de ejecución paralelos:
- * Uno para ESCUCHAR mensajes del servidor
+ * Uno para ESCUCHAR mensajes del servidor (o el LectorRapido si 'cliente.modo.rapido' está activo)
  * Otro para ENVIAR lo que escribe el usuario
  */
 public class ClienteChat {
+    private static final Pattern SERVIDOR_LLENO = Pattern.compile("servidor lleno, reintente en (\\d+)s");
 
     /**
      * Método principal del cliente.
@@ -20,6 +23,10 @@ public class ClienteChat {
     public static void main(String[] args) {
         String host = null;
         int puerto = 0;
+        boolean modoRapido;
+        long intervaloRapidoMs;
+        int umbralRapidoBytes;
+        int maximoPendientesRapido;
 
         // LEER ARCHIVO PROPIEDADES
         try (FileInputStream archivoConfig = new FileInputStream("chat.properties")) {
@@ -27,6 +34,10 @@ public class ClienteChat {
             configuracion.load(archivoConfig);
             host = configuracion.getProperty("servidor.ip");
             puerto = Integer.parseInt(configuracion.getProperty("servidor.puerto"));
+            modoRapido = Boolean.parseBoolean(configuracion.getProperty("cliente.modo.rapido", "false"));
+            intervaloRapidoMs = Long.parseLong(configuracion.getProperty("cliente.rapido.intervalo.ms", "50"));
+            umbralRapidoBytes = Integer.parseInt(configuracion.getProperty("cliente.rapido.umbral.bytes", "65536"));
+            maximoPendientesRapido = Integer.parseInt(configuracion.getProperty("cliente.rapido.maximo.pendientes", "10000"));
         } catch (IOException e) {
             System.err.println("ERROR: No se pudo leer chat.properties");
             return;
@@ -40,7 +51,28 @@ public class ClienteChat {
         while (!conectado && intentos < 5) {
             try {
                 s = new Socket(host, puerto);
+
+                // Si el servidor está saturado avisa en la primera línea y cierra: esperamos lo que pida
+                String primeraLinea = leerPrimeraLinea(s.getInputStream());
+                // Mientras espera en la cola del servidor se muestra el aviso y se sigue esperando
+                while (primeraLinea != null && primeraLinea.startsWith("SISTEMA: en cola")) {
+                    System.out.println(primeraLinea);
+                    primeraLinea = leerPrimeraLinea(s.getInputStream());
+                }
+                Matcher lleno = SERVIDOR_LLENO.matcher(primeraLinea == null ? "" : primeraLinea);
+                if (lleno.find()) {
+                    s.close();
+                    intentos++;
+                    int segundos = Integer.parseInt(lleno.group(1));
+                    System.out.println("Servidor lleno (Intento " + intentos + "/5). Reintentando en " + segundos + "s...");
+                    Thread.sleep(segundos * 1000L);
+                    continue;
+                }
+                if (primeraLinea != null) System.out.println(primeraLinea);
                 conectado = true;
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                break;
             } catch (IOException e) {
                 intentos++;
                 System.out.println("Fallo al conectar a " + host + ":" + puerto +
@@ -61,24 +93,34 @@ public class ClienteChat {
 
         // LOGICA DE CHAT
         try (Socket socket = s) {
-            // Hilo lector hecho con expresion lambda como vimos en clase
-            new Thread(() -> {
-                try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
-                    String msg;
-                    while ((msg = in.readLine()) != null)
-                        System.out.println(msg);
-                } catch (IOException e) {
-                    System.out.println("Conexión con el servidor finalizada.");
-                    System.exit(0);
-                }
-            }).start();
+            ClienteArchivos archivos = new ClienteArchivos(host);
+            if (modoRapido) {
+                // Hilo lector por lotes para salas con mucho tráfico
+                new Thread(new LectorRapido(socket, archivos, intervaloRapidoMs, umbralRapidoBytes, maximoPendientesRapido)).start();
+            } else {
+                // Hilo lector hecho con expresion lambda como vimos en clase
+                new Thread(() -> {
+                    try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+                        String msg;
+                        while ((msg = in.readLine()) != null) {
+                            if (!archivos.procesarLinea(msg))
+                                System.out.println(msg);
+                        }
+                    } catch (IOException e) {
+                        System.out.println("Conexión con el servidor finalizada.");
+                        System.exit(0);
+                    }
+                }).start();
+            }
 
             // Hilo escritor, es el propio main para ahorrar recursos
             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
             Scanner sc = new Scanner(System.in);
             while (true) {
                 String entrada = sc.nextLine();
-                out.println(entrada);
+                String comando = archivos.prepararComando(entrada);
+                if (comando != null)
+                    out.println(comando);
                 if (entrada.equalsIgnoreCase("/abandona"))
                     break;
             }
@@ -86,4 +128,19 @@ public class ClienteChat {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Lee la primera línea enviada por el servidor byte a byte, sin búfer,
+     * para que el resto del flujo quede intacto para el hilo lector.
+     * devuelve null si el servidor cierra antes de enviar nada.
+     */
+    private static String leerPrimeraLinea(InputStream entrada) throws IOException {
+        ByteArrayOutputStream linea = new ByteArrayOutputStream();
+        int b;
+        while ((b = entrada.read()) != -1 && b != '\n') {
+            if (b != '\r') linea.write(b);
+        }
+        if (b == -1 && linea.size() == 0) return null;
+        return linea.toString();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,110 @@
+import jdk.jfr.*;
+
+/**
+ * Eventos propios de JDK Flight Recorder para analizar la latencia del servidor.
+ * Todos vienen desactivados: mientras no se active una grabación con 'chat.jfc'
+ * crear y confirmar un evento no cuesta prácticamente nada.
+ *
+ * Ejemplo: java -XX:StartFlightRecording:settings=chat.jfc,filename=chat.jfr Servidor
+ */
+public final class EventosChat {
+
+    private EventosChat() {
+    }
+
+    /**
+     * Una fase del login de un cliente (comprobación de nombre, rol, sala inicial, registro en el log).
+     * La fase "rol" solo aparece para administradores e incluye la espera hasta que escriben la contraseña.
+     */
+    @Name("chat.Login")
+    @Label("Fase de login")
+    @Category("Chat")
+    @Enabled(false)
+    @StackTrace(false)
+    public static class Login extends Event {
+        @Label("Fase")
+        String fase;
+
+        @Label("Usuario")
+        String usuario;
+
+        public static Login iniciar(String fase, String usuario) {
+            Login evento = new Login();
+            evento.fase = fase;
+            evento.usuario = usuario;
+            evento.begin();
+            return evento;
+        }
+    }
+
+    /**
+     * Ejecución completa de un comando en procesarComando.
+     */
+    @Name("chat.Comando")
+    @Label("Comando")
+    @Category("Chat")
+    @Enabled(false)
+    @StackTrace(false)
+    public static class Comando extends Event {
+        @Label("Comando")
+        String comando;
+
+        @Label("Usuario")
+        String usuario;
+    }
+
+    /**
+     * Difusión de un mensaje a todos los usuarios de una sala.
+     */
+    @Name("chat.Difusion")
+    @Label("Difusión en sala")
+    @Category("Chat")
+    @Enabled(false)
+    @StackTrace(false)
+    public static class Difusion extends Event {
+        @Label("Sala")
+        String sala;
+
+        @Label("Destinatarios")
+        int destinatarios;
+    }
+
+    /**
+     * Adquisición de un cerrojo global (registroSalas, clientesConectados o el monitor de Servidor).
+     * La duración del evento incluye la espera y el tiempo que se mantiene el cerrojo;
+     * 'espera' es solo el tiempo hasta conseguirlo.
+     */
+    @Name("chat.Cerrojo")
+    @Label("Cerrojo global")
+    @Category("Chat")
+    @Enabled(false)
+    @StackTrace(false)
+    public static class Cerrojo extends Event {
+        @Label("Cerrojo")
+        String cerrojo;
+
+        @Label("Espera")
+        @Timespan(Timespan.NANOSECONDS)
+        long espera;
+
+        private transient long inicioEspera;
+
+        /**
+         * Crea el evento justo antes de entrar en el bloque synchronized.
+         */
+        public static Cerrojo iniciar(String cerrojo) {
+            Cerrojo evento = new Cerrojo();
+            evento.cerrojo = cerrojo;
+            evento.begin();
+            if (evento.isEnabled()) evento.inicioEspera = System.nanoTime();
+            return evento;
+        }
+
+        /**
+         * Se llama como primera instrucción dentro del bloque synchronized.
+         */
+        public void adquirido() {
+            if (isEnabled()) espera = System.nanoTime() - inicioEspera;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Filtro de palabras prohibidas para los mensajes del chat.
+ * Todas las palabras se compilan en un único autómata Aho-Corasick, así que cada mensaje
+ * se recorre una sola vez sin importar cuántas palabras haya configuradas.
+ *
+ * El autómata es inmutable: recargar() construye uno nuevo aparte y lo publica con una
+ * referencia volatile, de modo que los hilos que están filtrando no se detienen nunca.
+ *
+ * Formato del archivo (una palabra por línea, '#' para comentarios):
+ *   palabra              -> se oculta con asteriscos
+ *   palabra;rechazar     -> el mensaje no se envía
+ *   palabra;expulsar     -> el mensaje no se envía y se expulsa al autor
+ */
+public class FiltroModeracion {
+
+    /**
+     * Acciones posibles, de menor a mayor gravedad.
+     */
+    public enum Accion { NINGUNA, OCULTAR, RECHAZAR, EXPULSAR }
+
+    /**
+     * Resultado de filtrar un mensaje: la acción más grave encontrada y el texto a enviar.
+     */
+    public static class Resultado {
+        public final Accion accion;
+        public final String texto;
+
+        Resultado(Accion accion, String texto) {
+            this.accion = accion;
+            this.texto = texto;
+        }
+    }
+
+    private final String rutaArchivo;
+    private volatile Automata automata;
+
+    public FiltroModeracion(String rutaArchivo) {
+        this.rutaArchivo = rutaArchivo;
+        this.automata = new Automata(Collections.emptyMap());
+    }
+
+    /**
+     * Vuelve a leer el archivo de palabras y sustituye el autómata de forma atómica.
+     * Si el archivo no existe el filtro queda vacío.
+     * devuelve el número de palabras cargadas.
+     */
+    public int recargar() throws IOException {
+        Map<String, Accion> patrones = new LinkedHashMap<>();
+        File archivo = new File(rutaArchivo);
+        if (archivo.exists()) {
+            try (BufferedReader lector = new BufferedReader(new InputStreamReader(new FileInputStream(archivo), StandardCharsets.UTF_8))) {
+                String linea;
+                while ((linea = lector.readLine()) != null) {
+                    linea = linea.trim();
+                    if (linea.isEmpty() || linea.startsWith("#")) continue;
+                    String[] partes = linea.split(";", 2);
+                    Accion accion = partes.length > 1 ? traducirAccion(partes[1].trim()) : Accion.OCULTAR;
+                    // Locale.ROOT: igual que Character.toLowerCase al filtrar (con locale turco "I" no pasaría a "i")
+                    patrones.merge(partes[0].trim().toLowerCase(Locale.ROOT), accion, (a, b) -> a.compareTo(b) >= 0 ? a : b);
+                }
+            }
+        }
+        automata = new Automata(patrones);
+        return patrones.size();
+    }
+
+    /**
+     * Sustituye las palabras por las indicadas (usado por el benchmark).
+     */
+    public void cargar(Map<String, Accion> patrones) {
+        automata = new Automata(patrones);
+    }
+
+    /**
+     * Filtra un mensaje. Si no hay coincidencias devuelve el mismo texto sin copiarlo.
+     */
+    public Resultado filtrar(String mensaje) {
+        return automata.filtrar(mensaje);
+    }
+
+    private static Accion traducirAccion(String accion) {
+        switch (accion.toLowerCase(Locale.ROOT)) {
+            case "ocultar": return Accion.OCULTAR;
+            case "rechazar": return Accion.RECHAZAR;
+            case "expulsar": return Accion.EXPULSAR;
+            default: throw new IllegalArgumentException("Acción de moderación desconocida: " + accion);
+        }
+    }
+
+    /**
+     * Autómata Aho-Corasick compilado. Las transiciones de cada estado se guardan como
+     * arrays ordenados de caracteres (búsqueda binaria) para ocupar poca memoria con miles de palabras.
+     */
+    private static class Automata {
+        private final char[][] caracteres;
+        private final int[][] destinos;
+        private final int[] fallo;
+        // Palabra que termina en el estado (-1 si ninguna) y siguiente estado del sufijo con palabra
+        private final int[] salida;
+        private final int[] siguienteSalida;
+        private final int[] longitudes;
+        private final Accion[] acciones;
+
+        Automata(Map<String, Accion> patrones) {
+            // 1. Trie
+            List<TreeMap<Character, Integer>> hijos = new ArrayList<>();
+            List<Integer> salidas = new ArrayList<>();
+            hijos.add(new TreeMap<>());
+            salidas.add(-1);
+            longitudes = new int[patrones.size()];
+            acciones = new Accion[patrones.size()];
+            int indicePatron = 0;
+            for (Map.Entry<String, Accion> patron : patrones.entrySet()) {
+                String palabra = patron.getKey();
+                if (palabra.isEmpty()) continue;
+                int estado = 0;
+                for (int i = 0; i < palabra.length(); i++) {
+                    Integer siguiente = hijos.get(estado).get(palabra.charAt(i));
+                    if (siguiente == null) {
+                        siguiente = hijos.size();
+                        hijos.add(new TreeMap<>());
+                        salidas.add(-1);
+                        hijos.get(estado).put(palabra.charAt(i), siguiente);
+                    }
+                    estado = siguiente;
+                }
+                longitudes[indicePatron] = palabra.length();
+                acciones[indicePatron] = patron.getValue();
+                salidas.set(estado, indicePatron++);
+            }
+
+            int estados = hijos.size();
+            caracteres = new char[estados][];
+            destinos = new int[estados][];
+            fallo = new int[estados];
+            salida = new int[estados];
+            siguienteSalida = new int[estados];
+            for (int s = 0; s < estados; s++) {
+                TreeMap<Character, Integer> transiciones = hijos.get(s);
+                caracteres[s] = new char[transiciones.size()];
+                destinos[s] = new int[transiciones.size()];
+                int j = 0;
+                for (Map.Entry<Character, Integer> t : transiciones.entrySet()) {
+                    caracteres[s][j] = t.getKey();
+                    destinos[s][j++] = t.getValue();
+                }
+                salida[s] = salidas.get(s);
+                siguienteSalida[s] = -1;
+            }
+
+            // 2. Enlaces de fallo por niveles (BFS)
+            ArrayDeque<Integer> cola = new ArrayDeque<>();
+            for (int destino : destinos[0]) cola.add(destino);
+            while (!cola.isEmpty()) {
+                int estado = cola.poll();
+                for (int j = 0; j < caracteres[estado].length; j++) {
+                    char c = caracteres[estado][j];
+                    int hijo = destinos[estado][j];
+                    int f = fallo[estado];
+                    while (f != 0 && transicion(f, c) < 0) f = fallo[f];
+                    int candidato = transicion(f, c);
+                    fallo[hijo] = candidato >= 0 && candidato != hijo ? candidato : 0;
+                    siguienteSalida[hijo] = salida[fallo[hijo]] >= 0 ? fallo[hijo] : siguienteSalida[fallo[hijo]];
+                    cola.add(hijo);
+                }
+            }
+        }
+
+        private int transicion(int estado, char c) {
+            int i = Arrays.binarySearch(caracteres[estado], c);
+            return i >= 0 ? destinos[estado][i] : -1;
+        }
+
+        Resultado filtrar(String mensaje) {
+            Accion peor = Accion.NINGUNA;
+            char[] oculto = null;
+            int estado = 0;
+            for (int i = 0; i < mensaje.length(); i++) {
+                char c = Character.toLowerCase(mensaje.charAt(i));
+                int siguiente;
+                while ((siguiente = transicion(estado, c)) < 0 && estado != 0) estado = fallo[estado];
+                estado = Math.max(siguiente, 0);
+
+                for (int s = salida[estado] >= 0 ? estado : siguienteSalida[estado]; s >= 0; s = siguienteSalida[s]) {
+                    int patron = salida[s];
+                    int inicio = i - longitudes[patron] + 1;
+                    // Solo palabras completas: evita censurar trozos de palabras inocentes
+                    if (!esLimite(mensaje, inicio - 1) || !esLimite(mensaje, i + 1)) continue;
+                    Accion accion = acciones[patron];
+                    if (accion.compareTo(peor) > 0) peor = accion;
+                    if (accion == Accion.OCULTAR) {
+                        if (oculto == null) oculto = mensaje.toCharArray();
+                        Arrays.fill(oculto, inicio, i + 1, '*');
+                    }
+                }
+            }
+            return new Resultado(peor, oculto == null ? mensaje : new String(oculto));
+        }
+
+        private static boolean esLimite(String texto, int posicion) {
+            return posicion < 0 || posicion >= texto.length() || !Character.isLetterOrDigit(texto.charAt(posicion));
+        }
+    }
+}
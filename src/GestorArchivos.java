@@ -0,0 +1,337 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Archivos compartidos en las salas (/envia_archivo y /descarga).
+ * El chat solo intercambia las órdenes; los bytes viajan por un canal aparte (archivos.puerto):
+ * - Subida: el cliente se conecta, envía "SUBIR <token>" y a continuación el contenido,
+ *   que se escribe una sola vez en la carpeta de spool.
+ * - Descarga: el cliente envía "DESCARGAR <token>" y el servidor responde con
+ *   FileChannel.transferTo, que el sistema operativo copia directamente del disco al socket.
+ * Los tokens son de un solo uso. Los archivos caducan pasado un tiempo y hay un límite
+ * por archivo y otro para el total del spool. Cada usuario solo puede tener una subida
+ * pendiente, y su reserva se libera en cuanto caduca el token o el usuario se desconecta.
+ * El canal de datos trabaja en modo no bloqueante con un Selector: una conexión que pasa más
+ * de archivos.espera.segundos sin enviar ni aceptar datos se cierra y libera su hilo y su cuota.
+ */
+public class GestorArchivos {
+    private static final long CADUCIDAD_TOKEN_MS = 60 * 1000L;
+
+    private final Path carpetaSpool;
+    private final int puerto;
+    private final long tamanoMaximo;
+    private final long spoolMaximo;
+    private final long caducidadMs;
+    private final long esperaMaximaMs;
+    private final AtomicLong bytesReservados = new AtomicLong();
+    private final AtomicInteger siguienteId = new AtomicInteger(1);
+    private final Map<Integer, ArchivoCompartido> archivos = new ConcurrentHashMap<>();
+    private final Map<String, Transferencia> tokens = new ConcurrentHashMap<>();
+    // Subida reservada y aún no terminada de cada usuario
+    private final Map<String, ArchivoCompartido> subidasPendientes = new ConcurrentHashMap<>();
+    private final SecureRandom generadorTokens = new SecureRandom();
+    private final ExecutorService transferencias;
+
+    /**
+     * Archivo guardado en el spool y asociado a la sala en la que se compartió.
+     */
+    public static class ArchivoCompartido {
+        final int id;
+        final String nombre;
+        final long tamano;
+        final String propietario;
+        final Sala sala;
+        final Path ruta;
+        String tokenSubida;
+        volatile long caducidad;
+        volatile boolean completo;
+
+        ArchivoCompartido(int id, String nombre, long tamano, String propietario, Sala sala, Path ruta) {
+            this.id = id;
+            this.nombre = nombre;
+            this.tamano = tamano;
+            this.propietario = propietario;
+            this.sala = sala;
+            this.ruta = ruta;
+        }
+
+        public long getTamano() {
+            return tamano;
+        }
+
+        public String getNombre() {
+            return nombre;
+        }
+
+        /**
+         * Indica si el archivo ya se ha subido entero y se puede descargar desde la sala indicada.
+         * Se compara la propia Sala y no su nombre: si la sala se elimina y se crea otra con el
+         * mismo nombre, la nueva no hereda los archivos de la anterior.
+         */
+        public boolean disponibleEn(Sala salaUsuario) {
+            return completo && sala == salaUsuario;
+        }
+    }
+
+    /**
+     * Permiso de un solo uso para subir o descargar un archivo por el canal de datos.
+     */
+    private static class Transferencia {
+        final boolean subida;
+        final ArchivoCompartido archivo;
+        final long creada = System.currentTimeMillis();
+
+        Transferencia(boolean subida, ArchivoCompartido archivo) {
+            this.subida = subida;
+            this.archivo = archivo;
+        }
+    }
+
+    public GestorArchivos(Path carpetaSpool, int puerto, long tamanoMaximo, long spoolMaximo, long caducidadMs, long esperaMaximaMs, int hilos) {
+        this.carpetaSpool = carpetaSpool;
+        this.puerto = puerto;
+        this.tamanoMaximo = tamanoMaximo;
+        this.spoolMaximo = spoolMaximo;
+        this.caducidadMs = caducidadMs;
+        this.esperaMaximaMs = esperaMaximaMs;
+        this.transferencias = Executors.newFixedThreadPool(hilos, tarea -> {
+            Thread hilo = new Thread(tarea, "transferencia-archivos");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+    }
+
+    public int getPuerto() {
+        return puerto;
+    }
+
+    public long getTamanoMaximo() {
+        return tamanoMaximo;
+    }
+
+    public ArchivoCompartido getArchivo(int id) {
+        return archivos.get(id);
+    }
+
+    /**
+     * Abre el puerto de datos y arranca el hilo que acepta las transferencias.
+     * Los archivos que quedasen en el spool de una ejecución anterior se borran; solo los
+     * "<id>.dat" que crea esta clase, por si la carpeta configurada contiene otras cosas.
+     */
+    public void iniciar() throws IOException {
+        Files.createDirectories(carpetaSpool);
+        try (Stream<Path> antiguos = Files.list(carpetaSpool)) {
+            for (Path antiguo : (Iterable<Path>) antiguos::iterator) {
+                if (antiguo.getFileName().toString().matches("\\d+\\.dat") && Files.isRegularFile(antiguo))
+                    Files.deleteIfExists(antiguo);
+            }
+        }
+
+        ServerSocketChannel canalServidor = ServerSocketChannel.open();
+        canalServidor.bind(new InetSocketAddress(puerto));
+        Thread aceptador = new Thread(() -> {
+            while (canalServidor.isOpen()) {
+                try {
+                    SocketChannel canal = canalServidor.accept();
+                    transferencias.execute(() -> atenderTransferencia(canal));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "aceptador-archivos");
+        aceptador.setDaemon(true);
+        aceptador.start();
+    }
+
+    /**
+     * Indica si el usuario tiene una subida reservada que aún no ha terminado.
+     */
+    public boolean tieneSubidaPendiente(String propietario) {
+        return subidasPendientes.containsKey(propietario);
+    }
+
+    /**
+     * Reserva espacio para una subida y devuelve el token que debe usar el cliente,
+     * o null si el spool no tiene sitio o el usuario ya tiene otra subida pendiente.
+     */
+    public String reservarSubida(String propietario, Sala sala, String nombre, long tamano) {
+        if (bytesReservados.addAndGet(tamano) > spoolMaximo) {
+            bytesReservados.addAndGet(-tamano);
+            return null;
+        }
+        int id = siguienteId.getAndIncrement();
+        ArchivoCompartido archivo = new ArchivoCompartido(id, nombre, tamano, propietario, sala, carpetaSpool.resolve(id + ".dat"));
+        if (subidasPendientes.putIfAbsent(propietario, archivo) != null) {
+            bytesReservados.addAndGet(-tamano);
+            return null;
+        }
+        archivo.caducidad = System.currentTimeMillis() + CADUCIDAD_TOKEN_MS;
+        archivos.put(id, archivo);
+        archivo.tokenSubida = nuevoToken(new Transferencia(true, archivo));
+        return archivo.tokenSubida;
+    }
+
+    /**
+     * Anula la subida pendiente de un usuario que se desconecta y libera su reserva.
+     * Si la subida ya había empezado se deja terminar.
+     */
+    public void cancelarSubida(String propietario) {
+        ArchivoCompartido archivo = subidasPendientes.get(propietario);
+        if (archivo != null && tokens.remove(archivo.tokenSubida) != null) borrar(archivo);
+    }
+
+    /**
+     * Devuelve un token de descarga para un archivo ya subido.
+     */
+    public String reservarDescarga(ArchivoCompartido archivo) {
+        return nuevoToken(new Transferencia(false, archivo));
+    }
+
+    /**
+     * Borra los archivos caducados y olvida los tokens que no se han usado a tiempo;
+     * si era el token de una subida, su reserva se libera en el acto.
+     * Lo llama periódicamente el servidor.
+     */
+    public void limpiarCaducados() {
+        long ahora = System.currentTimeMillis();
+        for (Map.Entry<String, Transferencia> token : tokens.entrySet()) {
+            Transferencia transferencia = token.getValue();
+            if (ahora - transferencia.creada > CADUCIDAD_TOKEN_MS && tokens.remove(token.getKey(), transferencia) && transferencia.subida)
+                borrar(transferencia.archivo);
+        }
+        for (ArchivoCompartido archivo : archivos.values()) {
+            if (archivo.caducidad < ahora) borrar(archivo);
+        }
+    }
+
+    private String nuevoToken(Transferencia transferencia) {
+        String token = Long.toHexString(generadorTokens.nextLong()) + Long.toHexString(generadorTokens.nextLong());
+        tokens.put(token, transferencia);
+        return token;
+    }
+
+    private void borrar(ArchivoCompartido archivo) {
+        subidasPendientes.remove(archivo.propietario, archivo);
+        if (archivos.remove(archivo.id, archivo)) {
+            bytesReservados.addAndGet(-archivo.tamano);
+            try {
+                Files.deleteIfExists(archivo.ruta);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Atiende una conexión del canal de datos: lee la cabecera y hace la subida o la descarga.
+     */
+    private void atenderTransferencia(SocketChannel canal) {
+        try (canal; Selector selector = Selector.open()) {
+            canal.configureBlocking(false);
+            SelectionKey clave = canal.register(selector, 0);
+            String[] cabecera = leerCabecera(canal, clave).split(" ");
+            Transferencia transferencia = cabecera.length == 2 ? tokens.remove(cabecera[1]) : null;
+            if (transferencia == null || transferencia.subida != cabecera[0].equals("SUBIR")) return;
+
+            ArchivoCompartido archivo = transferencia.archivo;
+            if (transferencia.subida) {
+                recibir(canal, clave, archivo);
+            } else if (archivo.completo) {
+                try (FileChannel origen = FileChannel.open(archivo.ruta, StandardOpenOption.READ)) {
+                    long enviados = 0;
+                    while (enviados < archivo.tamano) {
+                        long escritos = origen.transferTo(enviados, archivo.tamano - enviados, canal);
+                        // Socket lleno: se espera a que el cliente lea, como mucho esperaMaximaMs
+                        if (escritos == 0 && !esperar(clave, SelectionKey.OP_WRITE)) return;
+                        enviados += escritos;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Espera a que el canal esté listo para la operación indicada.
+     * devuelve false si pasa esperaMaximaMs sin que lo esté.
+     */
+    private boolean esperar(SelectionKey clave, int operacion) throws IOException {
+        clave.interestOps(operacion);
+        clave.selector().selectedKeys().clear();
+        return clave.selector().select(esperaMaximaMs) > 0;
+    }
+
+    /**
+     * Guarda en el spool exactamente los bytes anunciados y avisa en la sala.
+     * Si la conexión se corta o se queda parada antes, el archivo se descarta y se libera su cuota.
+     */
+    private void recibir(SocketChannel canal, SelectionKey clave, ArchivoCompartido archivo) throws IOException {
+        // Mientras se sube no puede caducar; si se atasca, la espera máxima la corta
+        archivo.caducidad = Long.MAX_VALUE;
+        long recibidos = 0;
+        try (FileChannel destino = FileChannel.open(archivo.ruta, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            while (recibidos < archivo.tamano) {
+                long leidos = destino.transferFrom(canal, recibidos, archivo.tamano - recibidos);
+                if (leidos == 0) {
+                    // transferFrom no distingue fin de flujo de "sin datos todavía": se comprueba con el Selector y una lectura
+                    if (!esperar(clave, SelectionKey.OP_READ)) break;
+                    ByteBuffer siguiente = ByteBuffer.allocate(1);
+                    int leido = canal.read(siguiente);
+                    if (leido < 0) break;
+                    if (leido == 0) continue;
+                    siguiente.flip();
+                    destino.write(siguiente, recibidos);
+                    leidos = 1;
+                }
+                recibidos += leidos;
+            }
+        } finally {
+            if (recibidos < archivo.tamano) borrar(archivo);
+        }
+        if (recibidos < archivo.tamano) return;
+
+        archivo.caducidad = System.currentTimeMillis() + caducidadMs;
+        archivo.completo = true;
+        subidasPendientes.remove(archivo.propietario, archivo);
+        archivo.sala.difundirMensaje(archivo.propietario, "comparte '" + archivo.nombre + "' (" + archivo.tamano +
+                " bytes). Descárgalo con /descarga " + archivo.id);
+        Servidor.registrarLog("ARCHIVO: " + archivo.propietario + " | " + archivo.nombre + " | " + archivo.tamano + " bytes");
+    }
+
+    /**
+     * Lee la línea de cabecera byte a byte para no consumir nada del contenido que va detrás.
+     */
+    private String leerCabecera(SocketChannel canal, SelectionKey clave) throws IOException {
+        ByteBuffer byteLeido = ByteBuffer.allocate(1);
+        StringBuilder cabecera = new StringBuilder();
+        while (cabecera.length() < 256) {
+            byteLeido.clear();
+            int leido = canal.read(byteLeido);
+            if (leido < 0) break;
+            if (leido == 0) {
+                if (!esperar(clave, SelectionKey.OP_READ)) break;
+                continue;
+            }
+            char c = (char) byteLeido.get(0);
+            if (c == '\n') break;
+            if (c != '\r') cabecera.append(c);
+        }
+        return cabecera.toString();
+    }
+}
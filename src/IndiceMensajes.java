@@ -0,0 +1,156 @@
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Historial de mensajes de una sala con un índice invertido incremental.
+ * Los mensajes se encolan desde la difusión sin bloquear y se indexan por lotes
+ * en segundo plano. La memoria está acotada por número de mensajes, por antigüedad
+ * y por un presupuesto de bytes que cuenta tanto los mensajes retenidos como los que
+ * siguen en la cola: un mensaje que no cabe no se encola, y al indexar se descartan
+ * los más antiguos hasta volver a estar dentro del presupuesto.
+ */
+public class IndiceMensajes {
+    private static final DateTimeFormatter FORMATO_HORA = DateTimeFormatter.ofPattern("HH:mm:ss");
+    private static final int TAMANO_LOTE = 512;
+    // Cabeceras de los objetos del mensaje, su conjunto de términos y las entradas del índice
+    private static final int SOBRECARGA_MENSAJE = 256;
+
+    private final long retencionMs;
+    private final int maximoMensajes;
+    private final long maximoBytes;
+    private final AtomicLong bytesPendientes = new AtomicLong();
+    private long bytesRetenidos;
+    private final BlockingQueue<Mensaje> pendientes;
+    private final ArrayDeque<Mensaje> retenidos = new ArrayDeque<>();
+    private final Map<String, ArrayDeque<Mensaje>> indice = new HashMap<>();
+    private final List<Mensaje> lote = new ArrayList<>(TAMANO_LOTE);
+
+    /**
+     * Mensaje retenido junto con los términos que lo indexan.
+     */
+    private static class Mensaje {
+        final long marcaTiempo;
+        final String emisor;
+        final String texto;
+        final long tamano;
+        Set<String> terminos;
+
+        Mensaje(long marcaTiempo, String emisor, String texto) {
+            this.marcaTiempo = marcaTiempo;
+            this.emisor = emisor;
+            this.texto = texto;
+            // Dos bytes por carácter, y el texto cuenta dos veces porque los términos son copias de sus palabras
+            this.tamano = 2L * (emisor.length() + 2L * texto.length()) + SOBRECARGA_MENSAJE;
+        }
+    }
+
+    /**
+     * retencionMs es la antigüedad máxima de un mensaje antes de ser descartado.
+     * maximoMensajes es el número máximo de mensajes retenidos (y también el tamaño de la cola de pendientes).
+     * maximoBytes es el tamaño aproximado máximo que pueden ocupar los mensajes retenidos y pendientes.
+     */
+    public IndiceMensajes(long retencionMs, int maximoMensajes, long maximoBytes) {
+        this.retencionMs = retencionMs;
+        this.maximoMensajes = maximoMensajes;
+        this.maximoBytes = maximoBytes;
+        this.pendientes = new LinkedBlockingQueue<>(Math.max(1, maximoMensajes));
+    }
+
+    /**
+     * Encola un mensaje para indexarlo más tarde. No bloquea nunca:
+     * si el indexador va retrasado y la cola está llena, o los mensajes pendientes
+     * ya ocupan todo el presupuesto de bytes, el mensaje no se indexa.
+     */
+    public void registrar(String emisor, String texto) {
+        Mensaje m = new Mensaje(System.currentTimeMillis(), emisor, texto);
+        if (bytesPendientes.addAndGet(m.tamano) > maximoBytes || !pendientes.offer(m))
+            bytesPendientes.addAndGet(-m.tamano);
+    }
+
+    /**
+     * Aplica al índice los mensajes pendientes y descarta los que han caducado.
+     * Lo llama periódicamente el hilo indexador del servidor.
+     */
+    public synchronized void aplicarPendientes() {
+        while (pendientes.drainTo(lote, TAMANO_LOTE) > 0) {
+            for (Mensaje m : lote) {
+                m.terminos = tokenizar(m.texto + " " + m.emisor);
+                retenidos.addLast(m);
+                bytesRetenidos += m.tamano;
+                bytesPendientes.addAndGet(-m.tamano);
+                for (String termino : m.terminos)
+                    indice.computeIfAbsent(termino, t -> new ArrayDeque<>()).addLast(m);
+                if (retenidos.size() > maximoMensajes)
+                    descartarMasAntiguo();
+                while (!retenidos.isEmpty() && bytesRetenidos + bytesPendientes.get() > maximoBytes)
+                    descartarMasAntiguo();
+            }
+            lote.clear();
+        }
+
+        long limite = System.currentTimeMillis() - retencionMs;
+        while (!retenidos.isEmpty() && retenidos.peekFirst().marcaTiempo < limite)
+            descartarMasAntiguo();
+    }
+
+    /**
+     * Busca los mensajes más recientes que contienen todos los términos indicados.
+     * Solo recorre la lista de apariciones del término menos frecuente.
+     * devuelve como mucho 'limite' líneas, de la más reciente a la más antigua.
+     */
+    public synchronized List<String> buscar(String consulta, int limite) {
+        aplicarPendientes();
+        List<String> resultados = new ArrayList<>();
+        Set<String> terminos = tokenizar(consulta);
+        if (terminos.isEmpty()) return resultados;
+
+        ArrayDeque<Mensaje> masCorta = null;
+        for (String termino : terminos) {
+            ArrayDeque<Mensaje> apariciones = indice.get(termino);
+            if (apariciones == null) return resultados;
+            if (masCorta == null || apariciones.size() < masCorta.size()) masCorta = apariciones;
+        }
+
+        Iterator<Mensaje> it = masCorta.descendingIterator();
+        while (it.hasNext() && resultados.size() < limite) {
+            Mensaje m = it.next();
+            if (m.terminos.containsAll(terminos)) {
+                LocalTime hora = Instant.ofEpochMilli(m.marcaTiempo).atZone(ZoneId.systemDefault()).toLocalTime();
+                resultados.add("[" + FORMATO_HORA.format(hora) + "] " + m.emisor + ": " + m.texto);
+            }
+        }
+        return resultados;
+    }
+
+    /**
+     * Elimina el mensaje más antiguo del historial y del índice.
+     * Como las listas de apariciones están en orden de llegada, siempre está en cabeza.
+     */
+    private void descartarMasAntiguo() {
+        Mensaje m = retenidos.pollFirst();
+        if (m == null) return;
+        bytesRetenidos -= m.tamano;
+        for (String termino : m.terminos) {
+            ArrayDeque<Mensaje> apariciones = indice.get(termino);
+            apariciones.pollFirst();
+            if (apariciones.isEmpty()) indice.remove(termino);
+        }
+    }
+
+    /**
+     * Separa un texto en términos en minúsculas (letras y dígitos).
+     */
+    private static Set<String> tokenizar(String texto) {
+        Set<String> terminos = new HashSet<>();
+        for (String palabra : texto.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (!palabra.isEmpty()) terminos.add(palabra);
+        }
+        return terminos;
+    }
+}
@@ -0,0 +1,133 @@
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hilo lector del cliente para salas con mucho tráfico.
+ * Separa la lectura del socket de la escritura en consola:
+ * - El hilo de red lee con un búfer grande y deja las líneas en una cola acotada,
+ *   así el socket se vacía siempre y el servidor no se ve frenado por la consola.
+ * - El hilo de pintado vuelca las líneas por lotes y solo hace flush cada cierto
+ *   tiempo o cuando se acumulan suficientes bytes.
+ * Si la consola se queda demasiado atrás, las líneas que no caben se descartan.
+ * En cuanto vuelve a haber sitio en la cola, el hilo de red encola un aviso con cuántas
+ * se han omitido, de modo que aparece justo en el punto del flujo donde está el hueco.
+ */
+public class LectorRapido implements Runnable {
+    private static final int TAMANO_BUFER_LECTURA = 64 * 1024;
+
+    private final Socket socket;
+    private final ClienteArchivos archivos;
+    private final long intervaloMs;
+    private final int umbralBytes;
+    private final BlockingQueue<String> pendientes;
+    private volatile boolean finLectura;
+    // Solo lo toca el hilo de red
+    private long omitidos;
+
+    /**
+     * socket es la conexión con el servidor.
+     * archivos atiende las órdenes de transferencia de archivos que lleguen por el chat.
+     * intervaloMs es el tiempo máximo que una línea puede esperar antes de mostrarse.
+     * umbralBytes es el tamaño de lote a partir del cual se vuelca sin esperar al intervalo.
+     * maximoPendientes es el número de líneas que se pueden acumular antes de empezar a descartar.
+     */
+    public LectorRapido(Socket socket, ClienteArchivos archivos, long intervaloMs, int umbralBytes, int maximoPendientes) {
+        this.socket = socket;
+        this.archivos = archivos;
+        this.intervaloMs = intervaloMs;
+        this.umbralBytes = umbralBytes;
+        this.pendientes = new ArrayBlockingQueue<>(maximoPendientes);
+    }
+
+    @Override
+    public void run() {
+        Thread pintor = new Thread(this::pintar, "pintor-consola");
+        pintor.start();
+
+        boolean errorConexion = false;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()), TAMANO_BUFER_LECTURA)) {
+            String msg;
+            while ((msg = in.readLine()) != null) {
+                if (archivos.procesarLinea(msg)) continue;
+                if (omitidos > 0 && pendientes.offer(avisoOmitidos())) {
+                    omitidos = 0;
+                }
+                if (omitidos > 0 || !pendientes.offer(msg)) {
+                    omitidos++;
+                }
+            }
+        } catch (IOException e) {
+            errorConexion = true;
+        }
+
+        if (omitidos > 0) {
+            // El pintor sigue vaciando la cola, así que el aviso final acaba entrando
+            try {
+                pendientes.put(avisoOmitidos());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        finLectura = true;
+        try {
+            pintor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (errorConexion) {
+            System.out.println("Conexión con el servidor finalizada.");
+            System.exit(0);
+        }
+    }
+
+    private String avisoOmitidos() {
+        return "... " + omitidos + " mensajes omitidos ...";
+    }
+
+    /**
+     * Bucle del hilo de pintado: agrupa las líneas pendientes y las escribe en la consola
+     * con un único flush por lote.
+     */
+    private void pintar() {
+        Writer consola = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), Charset.defaultCharset()), TAMANO_BUFER_LECTURA);
+        List<String> lote = new ArrayList<>();
+        int bytesSinVolcar = 0;
+        long ultimoVolcado = System.currentTimeMillis();
+
+        try {
+            while (!finLectura || !pendientes.isEmpty()) {
+                String primera = pendientes.poll(intervaloMs, TimeUnit.MILLISECONDS);
+                if (primera != null) {
+                    lote.add(primera);
+                    pendientes.drainTo(lote);
+                }
+
+                for (String linea : lote) {
+                    consola.write(linea);
+                    consola.write(System.lineSeparator());
+                    bytesSinVolcar += linea.length() + 1;
+                }
+                lote.clear();
+
+                long ahora = System.currentTimeMillis();
+                if (bytesSinVolcar > 0 && (bytesSinVolcar >= umbralBytes || ahora - ultimoVolcado >= intervaloMs)) {
+                    consola.flush();
+                    bytesSinVolcar = 0;
+                    ultimoVolcado = ahora;
+                }
+            }
+            consola.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
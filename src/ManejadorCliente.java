@@ -1,5 +1,4 @@
 import java.io.*;
-import java.net.*;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -7,14 +6,15 @@ import java.util.List;
  * Hilo encargado de gestionar la comunicación individual con un cliente conectado.
  */
 public class ManejadorCliente implements Runnable {
-    private final Socket socketCliente;
+    private final Transporte transporteCliente;
     private final long marcaTiempoConexion;
     private String nombreUsuario;
     private Sala salaActualUsuario;
     private boolean esUsuarioAdministrador;
+    private boolean nombreAceptado;
 
-    public ManejadorCliente(Socket socket) {
-        this.socketCliente = socket;
+    public ManejadorCliente(Transporte transporte) {
+        this.transporteCliente = transporte;
         this.marcaTiempoConexion = System.currentTimeMillis();
     }
 
@@ -22,8 +22,8 @@ public class ManejadorCliente implements Runnable {
         return nombreUsuario;
     }
 
-    public Socket getSocketCliente() {
-        return socketCliente;
+    public Transporte getTransporteCliente() {
+        return transporteCliente;
     }
 
     public Sala getSalaActualUsuario() {
@@ -40,9 +40,12 @@ public class ManejadorCliente implements Runnable {
 
     @Override
     public void run() {
+        // Espera a que Servidor.atenderCliente termine de enviar el posible aviso de cola
+        synchronized (this) {
+        }
         try (
-                PrintWriter flujoSalida = new PrintWriter(socketCliente.getOutputStream(), true);
-                BufferedReader flujoEntrada = new BufferedReader(new InputStreamReader(socketCliente.getInputStream()))
+                PrintWriter flujoSalida = new PrintWriter(transporteCliente.getSalida(), true);
+                BufferedReader flujoEntrada = new BufferedReader(new InputStreamReader(transporteCliente.getEntrada()))
         ) {
             // PROCESO DE LOGIN
             while (true) {
@@ -53,7 +56,11 @@ public class ManejadorCliente implements Runnable {
                     return; // Cliente cerró la ventana o perdio la conexion antes de poner el nombre, desconectamos el hilo
                 nombreUsuario = nombreUsuario.trim();
 
-                if (!nombreUsuario.isEmpty() && Servidor.esNombreUsuarioDisponible(nombreUsuario)) {
+                EventosChat.Login faseNombre = EventosChat.Login.iniciar("nombre", nombreUsuario);
+                boolean nombreValido = !nombreUsuario.isEmpty() && Servidor.esNombreUsuarioDisponible(nombreUsuario);
+                faseNombre.commit();
+                if (nombreValido) {
+                    nombreAceptado = true;
                     break; // Nombre válido y libre, entra al chat
                 }
                 flujoSalida.println("ERROR: El nombre ya está en uso o es inválido.");
@@ -61,6 +68,7 @@ public class ManejadorCliente implements Runnable {
 
             // VERIFICACIÓN DE ROL (ADMINISTRADOR)
             if (Servidor.getListaAdministradores().contains(nombreUsuario)) {
+                EventosChat.Login faseRol = EventosChat.Login.iniciar("rol", nombreUsuario);
                 flujoSalida.println("SISTEMA: Usuario Administrador detectado. Introduce contraseña:");
                 String passwordIngresada = flujoEntrada.readLine();
 
@@ -71,20 +79,35 @@ public class ManejadorCliente implements Runnable {
                     flujoSalida.println("ERROR: Contraseña incorrecta. Accediendo como usuario BÁSICO.");
                     esUsuarioAdministrador = false;
                 }
+                faseRol.commit();
             } else {
                 esUsuarioAdministrador = false;
             }
 
             // ASIGNACIÓN DE SALA INICIAL
             String nombreSalaInicio = esUsuarioAdministrador ? "jiuston" : "recepcion";
+            EventosChat.Login faseSala = EventosChat.Login.iniciar("sala_inicial", nombreUsuario);
             unirseASala(nombreSalaInicio, flujoSalida);
+            faseSala.commit();
+            EventosChat.Login faseRegistro = EventosChat.Login.iniciar("registro_log", nombreUsuario);
             Servidor.registrarLog("CONEXIÓN: " + nombreUsuario);
+            faseRegistro.commit();
 
             // BUCLE PRINCIPAL DE COMANDOS
             String textoRecibido;
             while ((textoRecibido = flujoEntrada.readLine()) != null) {
                 if (textoRecibido.startsWith("/")) {
-                    procesarComando(textoRecibido, flujoSalida);
+                    EventosChat.Comando eventoComando = new EventosChat.Comando();
+                    eventoComando.begin();
+                    try {
+                        procesarComando(textoRecibido, flujoSalida);
+                    } finally {
+                        if (eventoComando.shouldCommit()) {
+                            eventoComando.comando = textoRecibido.split(" ", 2)[0].toLowerCase();
+                            eventoComando.usuario = nombreUsuario;
+                            eventoComando.commit();
+                        }
+                    }
                     if (textoRecibido.equalsIgnoreCase("/abandona")) {
                         break;
                     }
@@ -121,9 +144,13 @@ public class ManejadorCliente implements Runnable {
                 flujoSalida.println("/salas                  : Lista las salas disponibles.");
                 flujoSalida.println("/usuarios <sala>        : Lista los usuarios conectados en una sala.");
                 flujoSalida.println("/unirse <sala>          : Te mueve a la sala indicada.");
+                flujoSalida.println("/suscribir <sala>       : Recibe las entradas y salidas de una sala.");
+                flujoSalida.println("/desuscribir <sala>     : Deja de recibir entradas y salidas.");
                 flujoSalida.println("/ping <usuario>         : Comprueba si un usuario está en tu sala.");
                 flujoSalida.println("/mensaje <texto>        : Envía un mensaje PÚBLICO a la sala.");
                 flujoSalida.println("/mensaje <txt> <usu>    : Envía un mensaje PRIVADO al usuario.");
+                flujoSalida.println("/envia_archivo <ruta>   : Comparte un archivo en la sala (Max: " + Servidor.getGestorArchivos().getTamanoMaximo() + " bytes).");
+                flujoSalida.println("/descarga <id>          : Descarga un archivo compartido en tu sala.");
                 flujoSalida.println("/abandona               : Cierra la sesión y desconecta.");
 
                 if (esUsuarioAdministrador) {
@@ -135,7 +162,9 @@ public class ManejadorCliente implements Runnable {
                     flujoSalida.println("/expulsa <usu> [motivo] : Expulsa a un usuario del servidor.");
                     flujoSalida.println("/info_sala <sala>       : Muestra datos técnicos de una sala.");
                     flujoSalida.println("/info_usuario <usu>     : Muestra datos técnicos de un usuario.");
+                    flujoSalida.println("/buscar <sala> <txt>    : Busca mensajes recientes de una sala.");
                     flujoSalida.println("/mensaje_todos <txt>    : Envía un mensaje global a TODAS las salas.");
+                    flujoSalida.println("/recarga_filtro         : Vuelve a leer las palabras prohibidas.");
                     flujoSalida.println("/apaga                  : Apaga el servidor inmediatamente.");
                 }
                 flujoSalida.println("=================================================\n");
@@ -149,13 +178,16 @@ public class ManejadorCliente implements Runnable {
 
             case "/salas":
                 flujoSalida.println("Salas disponibles:");
+                EventosChat.Cerrojo cerrojoListaSalas = EventosChat.Cerrojo.iniciar("registroSalas");
                 synchronized(Servidor.getRegistroSalas()) {
+                    cerrojoListaSalas.adquirido();
                     for (Sala sala : Servidor.getRegistroSalas().values()) {
                         if (!sala.getNombre().equals("jiuston") || esUsuarioAdministrador) {
-                            flujoSalida.println("- " + sala.getNombre() + " (" + sala.getListaNicks().size() + " usu)");
+                            flujoSalida.println("- " + sala.getNombre() + " (" + sala.copiarListaNicks().size() + " usu)");
                         }
                     }
                 }
+                cerrojoListaSalas.commit();
                 break;
 
             case "/usuarios":
@@ -164,12 +196,36 @@ public class ManejadorCliente implements Runnable {
                 } else {
                     Sala salaObjetivo = Servidor.getRegistroSalas().get(palabrasMensaje[1].toLowerCase());
                     if (salaObjetivo != null)
-                        flujoSalida.println("Usuarios en " + palabrasMensaje[1] + ": " + salaObjetivo.getListaNicks());
+                        flujoSalida.println("Usuarios en " + palabrasMensaje[1] + ": " + salaObjetivo.copiarListaNicks());
                     else
                         flujoSalida.println("Aviso: La sala no existe.");
                 }
                 break;
 
+            case "/suscribir":
+                if (palabrasMensaje.length < 2) {
+                    flujoSalida.println("Aviso: Falta <sala>.");
+                    break;
+                }
+                Sala salaSuscribir = Servidor.getRegistroSalas().get(palabrasMensaje[1].toLowerCase());
+                if (salaSuscribir == null || (salaSuscribir.getNombre().equals("jiuston") && !esUsuarioAdministrador))
+                    flujoSalida.println("Aviso: La sala no existe.");
+                else
+                    salaSuscribir.suscribirPresencia(nombreUsuario, flujoSalida);
+                break;
+
+            case "/desuscribir":
+                if (palabrasMensaje.length < 2) {
+                    flujoSalida.println("Aviso: Falta <sala>.");
+                    break;
+                }
+                Sala salaDesuscribir = Servidor.getRegistroSalas().get(palabrasMensaje[1].toLowerCase());
+                if (salaDesuscribir != null && salaDesuscribir.cancelarPresencia(nombreUsuario))
+                    flujoSalida.println("SISTEMA: Suscripción cancelada.");
+                else
+                    flujoSalida.println("Aviso: No estabas suscrito a esa sala.");
+                break;
+
             case "/unirse":
                 if (palabrasMensaje.length < 2)
                     flujoSalida.println("Aviso: Falta <sala>.");
@@ -180,7 +236,7 @@ public class ManejadorCliente implements Runnable {
             case "/ping":
                 if (palabrasMensaje.length < 2)
                     flujoSalida.println("Aviso: Falta <usuario>.");
-                else if (salaActualUsuario.getListaNicks().contains(palabrasMensaje[1]))
+                else if (salaActualUsuario.contieneUsuario(palabrasMensaje[1]))
                     flujoSalida.println("PONG: " + palabrasMensaje[1] + " está aquí.");
                 else
                     flujoSalida.println("Aviso: El usuario no está en tu sala.");
@@ -204,7 +260,7 @@ public class ManejadorCliente implements Runnable {
                         // No te mandes mensajes a ti mismo
                         flujoSalida.println("Aviso: No te escribas a ti mismo.");
                     }
-                    else if (salaActualUsuario.getListaNicks().contains(destinatario)) {
+                    else if (salaActualUsuario.contieneUsuario(destinatario)) {
                         // Usuario existe Y está en la sala -> Mensaje Privado
 
                         // Verificamos si hay texto antes del usuario
@@ -212,8 +268,9 @@ public class ManejadorCliente implements Runnable {
                             flujoSalida.println("Aviso: Falta <mensaje> para el usuario " + destinatario);
                         } else {
                             // Extraemos el mensaje (desde el comando hasta el usuario final)
-                            String mensajePrivado = lineaCompleta.substring(comando.length(), lineaCompleta.lastIndexOf(destinatario)).trim();
-                            salaActualUsuario.enviarPrivado(nombreUsuario, destinatario, mensajePrivado);
+                            String mensajePrivado = moderar(lineaCompleta.substring(comando.length(), lineaCompleta.lastIndexOf(destinatario)).trim(), flujoSalida);
+                            if (mensajePrivado != null)
+                                salaActualUsuario.enviarPrivado(nombreUsuario, destinatario, mensajePrivado);
                         }
                     }
                     else {
@@ -224,9 +281,59 @@ public class ManejadorCliente implements Runnable {
                 else {
                     // MODO PÚBLICO: La última palabra NO es un usuario
                     // Se envía todo el contenido a la sala
-                    String mensajePublico = lineaCompleta.substring(comando.length()).trim();
-                    salaActualUsuario.difundirMensaje(nombreUsuario, mensajePublico);
+                    String mensajePublico = moderar(lineaCompleta.substring(comando.length()).trim(), flujoSalida);
+                    if (mensajePublico != null)
+                        salaActualUsuario.difundirMensaje(nombreUsuario, mensajePublico);
+                }
+                break;
+
+            case "/envia_archivo":
+                // ClienteChat traduce "/envia_archivo <ruta>" a "/envia_archivo <tamaño> <nombre>"
+                if (palabrasMensaje.length < 3) {
+                    flujoSalida.println("Aviso: Falta <ruta>.");
+                    break;
+                }
+                long tamanoArchivo;
+                try {
+                    tamanoArchivo = Long.parseLong(palabrasMensaje[1]);
+                } catch (NumberFormatException e) {
+                    flujoSalida.println("Aviso: Tamaño de archivo inválido.");
+                    break;
+                }
+                GestorArchivos gestorSubida = Servidor.getGestorArchivos();
+                if (tamanoArchivo <= 0 || tamanoArchivo > gestorSubida.getTamanoMaximo()) {
+                    flujoSalida.println("Aviso: El archivo está vacío o supera el máximo (" + gestorSubida.getTamanoMaximo() + " bytes).");
+                    break;
+                }
+                if (gestorSubida.tieneSubidaPendiente(nombreUsuario)) {
+                    flujoSalida.println("Aviso: Ya tienes una subida en curso. Espera a que termine.");
+                    break;
+                }
+                String nombreArchivo = lineaCompleta.substring(lineaCompleta.indexOf(palabrasMensaje[2], comando.length() + palabrasMensaje[1].length())).trim();
+                String tokenSubida = gestorSubida.reservarSubida(nombreUsuario, salaActualUsuario, nombreArchivo, tamanoArchivo);
+                if (tokenSubida == null)
+                    flujoSalida.println("Aviso: No queda espacio para archivos en el servidor. Inténtalo más tarde.");
+                else
+                    flujoSalida.println("ARCHIVO SUBIR " + tokenSubida + " " + gestorSubida.getPuerto() + " " + nombreArchivo);
+                break;
+
+            case "/descarga":
+                if (palabrasMensaje.length < 2) {
+                    flujoSalida.println("Aviso: Falta <id>.");
+                    break;
+                }
+                GestorArchivos gestorDescarga = Servidor.getGestorArchivos();
+                GestorArchivos.ArchivoCompartido archivo = null;
+                try {
+                    archivo = gestorDescarga.getArchivo(Integer.parseInt(palabrasMensaje[1]));
+                } catch (NumberFormatException e) {
+                    // Se trata igual que un archivo inexistente
                 }
+                if (archivo == null || !archivo.disponibleEn(salaActualUsuario))
+                    flujoSalida.println("Aviso: El archivo no existe en esta sala o ha caducado.");
+                else
+                    flujoSalida.println("ARCHIVO DESCARGAR " + gestorDescarga.reservarDescarga(archivo) + " " + gestorDescarga.getPuerto() +
+                            " " + archivo.getTamano() + " " + archivo.getNombre());
                 break;
 
             case "/abandona":
@@ -245,7 +352,9 @@ public class ManejadorCliente implements Runnable {
                     break;
                 }
 
+                EventosChat.Cerrojo cerrojoCrea = EventosChat.Cerrojo.iniciar("registroSalas");
                 synchronized(Servidor.getRegistroSalas()) {
+                    cerrojoCrea.adquirido();
                     String nombreNuevaSala = palabrasMensaje[1].toLowerCase();
                     if (Servidor.getRegistroSalas().containsKey(nombreNuevaSala)) {
                         flujoSalida.println("Aviso: La sala ya existía.");
@@ -263,6 +372,7 @@ public class ManejadorCliente implements Runnable {
                         flujoSalida.println("SISTEMA: Sala creada con aforo " + aforoSala + ".");
                     }
                 }
+                cerrojoCrea.commit();
                 break;
 
             case "/elimina":
@@ -279,14 +389,18 @@ public class ManejadorCliente implements Runnable {
                     break;
                 }
 
+                EventosChat.Cerrojo cerrojoElimina = EventosChat.Cerrojo.iniciar("registroSalas");
                 synchronized(Servidor.getRegistroSalas()) {
+                    cerrojoElimina.adquirido();
                     Sala salaParaEliminar = Servidor.getRegistroSalas().get(palabrasMensaje[1].toLowerCase());
-                    if (salaParaEliminar != null && salaParaEliminar.getListaNicks().isEmpty()) {
+                    if (salaParaEliminar != null && salaParaEliminar.copiarListaNicks().isEmpty()) {
                         Servidor.getRegistroSalas().remove(palabrasMensaje[1].toLowerCase());
+                        salaParaEliminar.cerrarPresencia();
                         flujoSalida.println("SISTEMA: Sala eliminada.");
                     } else
                         flujoSalida.println("Aviso: Sala ocupada o inexistente.");
                 }
+                cerrojoElimina.commit();
                 break;
 
             case "/cambia_aforo":
@@ -308,10 +422,17 @@ public class ManejadorCliente implements Runnable {
                         nuevoAforo = Servidor.getAforoMaximoPermitido();
                     }
 
-                    if (nuevoAforo > 0 && nuevoAforo >= salaModificar.getListaNicks().size()) {
-                        salaModificar.setCapacidadAforo(nuevoAforo);
+                    // Con el monitor de la sala nadie puede entrar entre la comprobación y el cambio
+                    boolean aforoCambiado = false;
+                    synchronized(salaModificar) {
+                        if (nuevoAforo > 0 && nuevoAforo >= salaModificar.getListaNicks().size()) {
+                            salaModificar.setCapacidadAforo(nuevoAforo);
+                            aforoCambiado = true;
+                        }
+                    }
+                    if (aforoCambiado)
                         flujoSalida.println("SISTEMA: Aforo cambiado.");
-                    } else
+                    else
                         flujoSalida.println("Aviso: Aforo inválido o menor que usuarios actuales.");
                 }
                 break;
@@ -326,35 +447,52 @@ public class ManejadorCliente implements Runnable {
                     break;
                 }
 
+                EventosChat.Cerrojo cerrojoForzado = EventosChat.Cerrojo.iniciar("registroSalas");
                 synchronized(Servidor.getRegistroSalas()) {
+                    cerrojoForzado.adquirido();
                     Sala salaEliminar = Servidor.getRegistroSalas().get(palabrasMensaje[1].toLowerCase());
                     Sala salaRecepcion = Servidor.getRegistroSalas().get("recepcion");
 
                     if (salaEliminar != null && salaRecepcion != null && !palabrasMensaje[1].equals("recepcion")) {
-                        if (salaRecepcion.getListaNicks().size() + salaEliminar.getListaNicks().size() <= salaRecepcion.getCapacidadAforo()) {
+                        // Copia de nicks y flujos con el monitor de la sala para que sigan emparejados
+                        List<String> usuariosMovidos;
+                        List<PrintWriter> flujosMovidos;
+                        synchronized(salaEliminar) {
+                            usuariosMovidos = new ArrayList<>(salaEliminar.getListaNicks());
+                            flujosMovidos = new ArrayList<>(salaEliminar.getListaFlujos());
+                        }
+                        if (salaRecepcion.copiarListaNicks().size() + usuariosMovidos.size() <= salaRecepcion.getCapacidadAforo()) {
                             // Mover usuarios
-                            List<String> usuariosMovidos = new ArrayList<>(salaEliminar.getListaNicks());
-                            List<PrintWriter> flujosMovidos = new ArrayList<>(salaEliminar.getListaFlujos());
 
-                            for(int i=0; i<usuariosMovidos.size(); i++) {
-                                salaRecepcion.intentarEntrar(usuariosMovidos.get(i), flujosMovidos.get(i));
-                                flujosMovidos.get(i).println("SISTEMA: Sala eliminada. Usuarios movidos a Recepción.");
+                            // Con el monitor de recepción tomado la tarea de fondo no puede publicar a medias:
+                            // todas las entradas salen en una sola actualización de presencia
+                            synchronized(salaRecepcion) {
+                                for(int i=0; i<usuariosMovidos.size(); i++) {
+                                    salaRecepcion.intentarEntrar(usuariosMovidos.get(i), flujosMovidos.get(i));
+                                    flujosMovidos.get(i).println("SISTEMA: Sala eliminada. Usuarios movidos a Recepción.");
+                                }
+                                salaRecepcion.publicarPresencia();
                             }
 
                             // Actualizar referencias en los hilos de cliente
+                            EventosChat.Cerrojo cerrojoForzadoClientes = EventosChat.Cerrojo.iniciar("clientesConectados");
                             synchronized(Servidor.getClientesConectados()) {
+                                cerrojoForzadoClientes.adquirido();
                                 for(ManejadorCliente cliente : Servidor.getClientesConectados()) {
                                     if (cliente.getSalaActualUsuario() != null && cliente.getSalaActualUsuario().getNombre().equals(salaEliminar.getNombre())) {
                                         cliente.setSalaActualUsuario(salaRecepcion);
                                     }
                                 }
                             }
+                            cerrojoForzadoClientes.commit();
                             Servidor.getRegistroSalas().remove(palabrasMensaje[1].toLowerCase());
+                            salaEliminar.cerrarPresencia();
                             flujoSalida.println("SISTEMA: Borrado forzado OK.");
                         } else
                             flujoSalida.println("Aviso: No caben en recepción.");
                     }
                 }
+                cerrojoForzado.commit();
                 break;
 
             case "/expulsa":
@@ -371,19 +509,22 @@ public class ManejadorCliente implements Runnable {
                 String motivoExpulsion = (palabrasMensaje.length > 2) ? lineaCompleta.substring(lineaCompleta.indexOf(palabrasMensaje[2])) : "Sin motivo especificado";
                 boolean fueExpulsado = false;
 
+                EventosChat.Cerrojo cerrojoExpulsa = EventosChat.Cerrojo.iniciar("clientesConectados");
                 synchronized(Servidor.getClientesConectados()) {
+                    cerrojoExpulsa.adquirido();
                     for (ManejadorCliente cliente : Servidor.getClientesConectados()) {
                         if (cliente.getNombreUsuario().equals(usuarioAExpulsar) && !cliente.esUsuarioAdministrador) {
                             try {
-                                PrintWriter salidaCliente = new PrintWriter(cliente.getSocketCliente().getOutputStream(), true);
+                                PrintWriter salidaCliente = new PrintWriter(cliente.getTransporteCliente().getSalida(), true);
                                 salidaCliente.println("\nSISTEMA: Has sido expulsado. Motivo: " + motivoExpulsion);
-                                cliente.getSocketCliente().close();
+                                cliente.getTransporteCliente().cerrar();
                                 fueExpulsado = true;
                             } catch (IOException e) { e.printStackTrace(); }
                             break;
                         }
                     }
                 }
+                cerrojoExpulsa.commit();
                 if (fueExpulsado) {
                     flujoSalida.println("SISTEMA: Has expulsado a " + usuarioAExpulsar);
                     Servidor.registrarLog("EXPULSIÓN: " + usuarioAExpulsar + " | Motivo: " + motivoExpulsion);
@@ -418,7 +559,9 @@ public class ManejadorCliente implements Runnable {
                     break;
                 }
                 boolean usuarioEncontrado = false;
+                EventosChat.Cerrojo cerrojoInfoUsuario = EventosChat.Cerrojo.iniciar("clientesConectados");
                 synchronized(Servidor.getClientesConectados()) {
+                    cerrojoInfoUsuario.adquirido();
                     for (ManejadorCliente cliente : Servidor.getClientesConectados()) {
                         if (cliente.getNombreUsuario().equals(palabrasMensaje[1])) {
                             long duracion = (System.currentTimeMillis() - cliente.getMarcaTiempoConexion()) / 1000;
@@ -428,20 +571,59 @@ public class ManejadorCliente implements Runnable {
                         }
                     }
                 }
+                cerrojoInfoUsuario.commit();
                 if (!usuarioEncontrado)
                     flujoSalida.println("Aviso: No conectado.");
                 break;
 
+            case "/buscar":
+                if (!esUsuarioAdministrador) {
+                    flujoSalida.println("ERROR: Solo admin.");
+                    break;
+                }
+                if (palabrasMensaje.length < 3) {
+                    flujoSalida.println("Aviso: Faltan datos.");
+                    break;
+                }
+                Sala salaBusqueda = Servidor.getRegistroSalas().get(palabrasMensaje[1].toLowerCase());
+                if (salaBusqueda == null) {
+                    flujoSalida.println("Aviso: No existe.");
+                    break;
+                }
+                String terminosBusqueda = lineaCompleta.substring(lineaCompleta.indexOf(palabrasMensaje[2], comando.length() + palabrasMensaje[1].length()));
+                List<String> coincidencias = salaBusqueda.getHistorial().buscar(terminosBusqueda, 20);
+                flujoSalida.println("Resultados en " + salaBusqueda.getNombre() + " (" + coincidencias.size() + "):");
+                for (String coincidencia : coincidencias)
+                    flujoSalida.println("  " + coincidencia);
+                break;
+
             case "/mensaje_todos":
                 if (!esUsuarioAdministrador) {
                     flujoSalida.println("ERROR: Solo admin.");
                     break; }
                 if (palabrasMensaje.length > 1) {
-                    String mensajeGlobal = lineaCompleta.substring(comando.length()).trim();
+                    String mensajeGlobal = moderar(lineaCompleta.substring(comando.length()).trim(), flujoSalida);
+                    if (mensajeGlobal == null) break;
+                    EventosChat.Cerrojo cerrojoMensajeTodos = EventosChat.Cerrojo.iniciar("registroSalas");
                     synchronized(Servidor.getRegistroSalas()) {
+                        cerrojoMensajeTodos.adquirido();
                         for (Sala sala : Servidor.getRegistroSalas().values())
                             sala.difundirMensaje("ADMIN-GLOBAL", mensajeGlobal);
                     }
+                    cerrojoMensajeTodos.commit();
+                }
+                break;
+
+            case "/recarga_filtro":
+                if (!esUsuarioAdministrador) {
+                    flujoSalida.println("ERROR: Solo admin.");
+                    break;
+                }
+                try {
+                    int palabrasCargadas = Servidor.getFiltroModeracion().recargar();
+                    flujoSalida.println("SISTEMA: Filtro recargado con " + palabrasCargadas + " palabras.");
+                } catch (IOException | IllegalArgumentException e) {
+                    flujoSalida.println("ERROR: No se pudo recargar el filtro: " + e.getMessage());
                 }
                 break;
 
@@ -460,6 +642,38 @@ public class ManejadorCliente implements Runnable {
         }
     }
 
+    /**
+     * Pasa un mensaje por el filtro de moderación antes de enviarlo.
+     * Se hace fuera de los cerrojos de las salas para no frenar la difusión.
+     * texto es el mensaje tal y como lo escribió el usuario.
+     * flujoSalida es el flujo para avisar al usuario si el mensaje se bloquea.
+     * devuelve el texto a enviar (con las palabras ocultadas) o null si no debe enviarse.
+     */
+    private String moderar(String texto, PrintWriter flujoSalida) {
+        FiltroModeracion.Resultado resultado = Servidor.getFiltroModeracion().filtrar(texto);
+        switch (resultado.accion) {
+            case EXPULSAR:
+                // Los administradores no pueden ser expulsados: se trata como un rechazo
+                if (esUsuarioAdministrador) {
+                    flujoSalida.println("Aviso: Mensaje bloqueado por moderación.");
+                    return null;
+                }
+                flujoSalida.println("\nSISTEMA: Has sido expulsado. Motivo: Moderación automática");
+                Servidor.registrarLog("EXPULSIÓN: " + nombreUsuario + " | Motivo: Moderación automática");
+                try {
+                    transporteCliente.cerrar();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                return null;
+            case RECHAZAR:
+                flujoSalida.println("Aviso: Mensaje bloqueado por moderación.");
+                return null;
+            default:
+                return resultado.texto;
+        }
+    }
+
     /**
      * Intenta mover al usuario actual a una sala específica.
      * Realiza validaciones de seguridad (permisos de administrador) y de capacidad (aforo).
@@ -491,20 +705,33 @@ public class ManejadorCliente implements Runnable {
     /**
      * Gestiona el cierre ordenado de la sesión del cliente.
      * Se encarga de:
-     * 1. Eliminar al usuario de la lista de ocupantes de su sala actual.
+     * 1. Eliminar al usuario de la lista de ocupantes de su sala actual y de las suscripciones de presencia.
      * 2. Eliminar el hilo de la lista global de clientes conectados del servidor.
-     * 3. Registrar la desconexión en el log del sistema.
-     * 4. Cerrar el socket de red de forma segura.
+     * 3. Liberar su plaza en el control de admisión y registrar la desconexión en el log del sistema.
+     * 4. Cerrar el transporte (socket de red o tubería) de forma segura.
      */
     private void desconectarCliente() {
         if (salaActualUsuario != null)
             salaActualUsuario.eliminarUsuario(nombreUsuario);
+        EventosChat.Cerrojo cerrojoSalas = EventosChat.Cerrojo.iniciar("registroSalas");
+        synchronized(Servidor.getRegistroSalas()) {
+            cerrojoSalas.adquirido();
+            for (Sala sala : Servidor.getRegistroSalas().values())
+                sala.cancelarPresencia(nombreUsuario);
+        }
+        cerrojoSalas.commit();
+        EventosChat.Cerrojo cerrojoClientes = EventosChat.Cerrojo.iniciar("clientesConectados");
         synchronized(Servidor.getClientesConectados()) {
+            cerrojoClientes.adquirido();
             Servidor.getClientesConectados().remove(this);
         }
+        cerrojoClientes.commit();
+        // Si el login no llegó a terminar, nombreUsuario puede ser el de otro usuario
+        if (nombreAceptado) Servidor.getGestorArchivos().cancelarSubida(nombreUsuario);
+        Servidor.liberarConexion();
         Servidor.registrarLog("DESCONEXIÓN: " + nombreUsuario);
         try {
-            socketCliente.close();
+            transporteCliente.cerrar();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -1,7 +1,9 @@
 import java.io.PrintWriter;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Clase que representa una sala de chat individual.
@@ -14,6 +16,11 @@ public class Sala {
     private final LocalDateTime fechaCreacion;
     private final List<String> nicks = new ArrayList<>();
     private final List<PrintWriter> flujos = new ArrayList<>();
+    private final Map<String, PrintWriter> suscriptoresPresencia = new LinkedHashMap<>();
+    private final Map<String, Boolean> cambiosPresencia = new LinkedHashMap<>();
+    private long versionPresencia;
+    private final IndiceMensajes historial = new IndiceMensajes(Servidor.getRetencionHistorialMs(), Servidor.getMaximoMensajesHistorial(),
+            Servidor.getMaximoBytesHistorial());
 
     /**
      * Constructor de la clase Sala.
@@ -57,6 +64,21 @@ public class Sala {
         return nicks;
     }
 
+    /**
+     * Devuelve una copia de la lista de nicks hecha con el cerrojo de la sala,
+     * para recorrerla o imprimirla mientras otros usuarios entran y salen.
+     */
+    public synchronized List<String> copiarListaNicks() {
+        return new ArrayList<>(nicks);
+    }
+
+    /**
+     * Indica si un usuario está en la sala.
+     */
+    public synchronized boolean contieneUsuario(String nick) {
+        return nicks.contains(nick);
+    }
+
     /**
      * Devuelve la lista de flujos de escritura (PrintWriters) de los usuarios en la sala.
      */
@@ -64,6 +86,13 @@ public class Sala {
         return flujos;
     }
 
+    /**
+     * Devuelve el historial indexado de mensajes de la sala (usado por /buscar).
+     */
+    public IndiceMensajes getHistorial() {
+        return historial;
+    }
+
     /**
      * Intenta añadir un usuario a la sala.
      * Es synchronized para evitar conflictos si dos usuarios entran a la vez.
@@ -75,6 +104,7 @@ public class Sala {
         if (nicks.size() < aforo) {
             nicks.add(nick);
             flujos.add(flujo);
+            anotarCambioPresencia(nick, true);
             return true;
         }
         return false;
@@ -89,7 +119,67 @@ public class Sala {
         if (i != -1) {
             nicks.remove(i);
             flujos.remove(i);
+            anotarCambioPresencia(nick, false);
+        }
+    }
+
+    /**
+     * Suscribe a un usuario a los cambios de presencia de la sala.
+     * Antes de enviarle la foto inicial se publican los cambios pendientes,
+     * así todo lo que reciba después es posterior a la versión de la foto.
+     * nick es el usuario que se suscribe.
+     * flujo es su flujo de salida.
+     */
+    public synchronized void suscribirPresencia(String nick, PrintWriter flujo) {
+        publicarPresencia();
+        suscriptoresPresencia.put(nick, flujo);
+        flujo.println("PRESENCIA " + nombre + " v" + versionPresencia + " LISTA: " + nicks);
+    }
+
+    /**
+     * Cancela la suscripción de un usuario a los cambios de presencia.
+     * devuelve true si estaba suscrito.
+     */
+    public synchronized boolean cancelarPresencia(String nick) {
+        return suscriptoresPresencia.remove(nick) != null;
+    }
+
+    /**
+     * Envía en una sola línea todos los cambios de presencia acumulados desde la última publicación.
+     * Lo llama periódicamente el servidor, de modo que una ráfaga de entradas y salidas
+     * (por ejemplo un /elimina_forzado) llega como una única actualización.
+     */
+    public synchronized void publicarPresencia() {
+        if (cambiosPresencia.isEmpty()) return;
+        if (!suscriptoresPresencia.isEmpty()) {
+            StringBuilder linea = new StringBuilder("PRESENCIA " + nombre + " v" + versionPresencia);
+            for (Map.Entry<String, Boolean> cambio : cambiosPresencia.entrySet())
+                linea.append(cambio.getValue() ? " +" : " -").append(cambio.getKey());
+            for (PrintWriter f : suscriptoresPresencia.values())
+                f.println(linea);
         }
+        cambiosPresencia.clear();
+    }
+
+    /**
+     * Avisa a los suscriptores de que la sala ha sido eliminada y los da de baja.
+     */
+    public synchronized void cerrarPresencia() {
+        for (PrintWriter f : suscriptoresPresencia.values())
+            f.println("PRESENCIA " + nombre + " ELIMINADA");
+        suscriptoresPresencia.clear();
+        cambiosPresencia.clear();
+    }
+
+    /**
+     * Acumula un cambio de presencia. Una entrada y una salida del mismo usuario
+     * dentro del mismo intervalo se anulan entre sí.
+     */
+    private void anotarCambioPresencia(String nick, boolean entra) {
+        versionPresencia++;
+        Boolean anterior = cambiosPresencia.remove(nick);
+        if (anterior == null || anterior == entra)
+            cambiosPresencia.put(nick, entra);
     }
 
     /**
@@ -97,11 +187,20 @@ public class Sala {
      * Recorre la lista de flujos y escribe el mensaje en cada uno.
      * emisor es quien envía el mensaje.
      * mensaje es el contenido del mensaje.
+     * El mensaje solo se encola en el historial; el indexado se hace en segundo plano.
      */
     public synchronized void difundirMensaje(String emisor, String mensaje) {
+        EventosChat.Difusion evento = new EventosChat.Difusion();
+        evento.begin();
+        historial.registrar(emisor, mensaje);
         for (PrintWriter f : flujos) {
             f.println("[" + nombre + "] " + emisor + ": " + mensaje);
         }
+        if (evento.shouldCommit()) {
+            evento.sala = nombre;
+            evento.destinatarios = flujos.size();
+            evento.commit();
+        }
     }
 
     /**
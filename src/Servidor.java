@@ -1,7 +1,9 @@
 import java.io.*;
 import java.net.*;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Clase principal del servidor de Chat.
@@ -15,6 +17,16 @@ public class Servidor {
     private static String rutaArchivoLog;
     private static int aforoMaximoPermitido;
     private static int aforoInicialPorDefecto;
+    private static long retencionHistorialMs = 60 * 60 * 1000L;
+    private static int maximoMensajesHistorial = 10000;
+    private static long maximoBytesHistorial = 16 * 1024 * 1024L;
+    private static ThreadPoolExecutor gestorDeHilos;
+    private static final AtomicInteger conexionesActivas = new AtomicInteger();
+    private static int maximoConexiones;
+    private static int segundosReintento;
+    private static int segundosEsperaCola;
+    private static FiltroModeracion filtroModeracion = new FiltroModeracion("moderacion.txt");
+    private static GestorArchivos gestorArchivos;
 
 
     public static Map<String, Sala> getRegistroSalas() {
@@ -39,6 +51,26 @@ public class Servidor {
         return aforoInicialPorDefecto;
     }
 
+    public static long getRetencionHistorialMs() {
+        return retencionHistorialMs;
+    }
+
+    public static int getMaximoMensajesHistorial() {
+        return maximoMensajesHistorial;
+    }
+
+    public static long getMaximoBytesHistorial() {
+        return maximoBytesHistorial;
+    }
+
+    public static FiltroModeracion getFiltroModeracion() {
+        return filtroModeracion;
+    }
+
+    public static GestorArchivos getGestorArchivos() {
+        return gestorArchivos;
+    }
+
     public static void main(String[] args) {
         Properties configuracion = new Properties();
 
@@ -46,50 +78,224 @@ public class Servidor {
             configuracion.load(archivoConfig);
 
             int puertoServidor = Integer.parseInt(configuracion.getProperty("servidor.puerto", "1234"));
-            int maximoHilosSimultaneos = Integer.parseInt(configuracion.getProperty("servidor.numero.maximo.threads", "100"));
+            int numeroAceptadores = Integer.parseInt(configuracion.getProperty("servidor.aceptadores", "2"));
+            int colaConexiones = Integer.parseInt(configuracion.getProperty("servidor.cola.conexiones", "128"));
+            configurar(configuracion);
+            gestorArchivos.iniciar();
 
-            // Lectura de configuración de aforos
-            aforoMaximoPermitido = Integer.parseInt(configuracion.getProperty("sala.aforo.maximo", "10"));
-            aforoInicialPorDefecto = Integer.parseInt(configuracion.getProperty("sala.aforo.creacion", "5"));
+            // Arranque del servidor
+            try (ServerSocket socketServidor = new ServerSocket(puertoServidor, colaConexiones)) {
 
-            // Configuración general
-            rutaArchivoLog = configuracion.getProperty("archivo.log", "servidor.log");
-            contrasenaAdministrador = configuracion.getProperty("admin.password", "1234");
+                System.out.println("Servidor iniciado en puerto " + puertoServidor);
+                registrarLog("INICIO DEL SERVIDOR");
 
-            // Carga de administradores desde el properties
-            String adminsTexto = configuracion.getProperty("admins", "");
-            if (!adminsTexto.isEmpty()) {
-                String[] arrayAdmins = adminsTexto.split(",");
-                for (String admin : arrayAdmins) listaAdministradores.add(admin.trim());
+                // Varios hilos aceptan en paralelo para absorber ráfagas de conexiones
+                List<Thread> aceptadores = new ArrayList<>();
+                for (int i = 0; i < numeroAceptadores; i++) {
+                    Thread aceptador = new Thread(() -> aceptarConexiones(socketServidor), "aceptador-" + i);
+                    aceptador.start();
+                    aceptadores.add(aceptador);
+                }
+                for (Thread aceptador : aceptadores)
+                    aceptador.join();
+            } finally {
+                gestorDeHilos.close();
             }
 
-            // Inicialización de salas base con el aforo inicial por defecto
-            registroSalas.put("recepcion", new Sala("recepcion", aforoInicialPorDefecto));
-            registroSalas.put("jiuston", new Sala("jiuston", aforoInicialPorDefecto));
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
 
-            // Arranque del servidor
-            try (ServerSocket socketServidor = new ServerSocket(puertoServidor);
-                 ExecutorService gestorDeHilos = Executors.newFixedThreadPool(maximoHilosSimultaneos)) {
+    /**
+     * Bucle de un hilo aceptador: recoge conexiones entrantes y las pasa al control de admisión.
+     */
+    private static void aceptarConexiones(ServerSocket socketServidor) {
+        while (!socketServidor.isClosed()) {
+            try {
+                Socket socketCliente = socketServidor.accept();
+                atenderCliente(new TransporteSocket(socketCliente));
+            } catch (IOException e) {
+                if (!socketServidor.isClosed()) e.printStackTrace();
+            }
+        }
+    }
 
-                System.out.println("Servidor iniciado en puerto " + puertoServidor);
-                registrarLog("INICIO DEL SERVIDOR");
+    /**
+     * Aplica la configuración leída de 'chat.properties', crea las salas base
+     * y arranca el pool de hilos y las tareas de fondo.
+     * Se separa de main para poder levantar el servidor dentro del proceso (ver SimuladorCarga).
+     */
+    public static void configurar(Properties configuracion) {
+        int maximoHilosSimultaneos = Integer.parseInt(configuracion.getProperty("servidor.numero.maximo.threads", "100"));
 
-                while (!socketServidor.isClosed()) {
+        // Control de admisión: clientes en espera de hilo y conexiones totales
+        int maximoEnEspera = Integer.parseInt(configuracion.getProperty("servidor.maximo.en.espera", "10"));
+        maximoConexiones = Integer.parseInt(configuracion.getProperty("servidor.conexiones.maximas", String.valueOf(maximoHilosSimultaneos + maximoEnEspera)));
+        segundosReintento = Integer.parseInt(configuracion.getProperty("servidor.reintento.segundos", "5"));
+        segundosEsperaCola = Integer.parseInt(configuracion.getProperty("servidor.espera.cola.segundos", "30"));
 
-                    Socket socketCliente = socketServidor.accept();
+        // Lectura de configuración de aforos
+        aforoMaximoPermitido = Integer.parseInt(configuracion.getProperty("sala.aforo.maximo", "10"));
+        aforoInicialPorDefecto = Integer.parseInt(configuracion.getProperty("sala.aforo.creacion", "5"));
 
-                    ManejadorCliente nuevoCliente = new ManejadorCliente(socketCliente);
+        // Configuración del historial de búsqueda
+        retencionHistorialMs = Long.parseLong(configuracion.getProperty("historial.retencion.minutos", "60")) * 60 * 1000;
+        maximoMensajesHistorial = Integer.parseInt(configuracion.getProperty("historial.maximo.mensajes", "10000"));
+        maximoBytesHistorial = Long.parseLong(configuracion.getProperty("historial.maximo.bytes", "16777216"));
+        int intervaloIndexadoMs = Integer.parseInt(configuracion.getProperty("historial.intervalo.indexado.ms", "500"));
+        int intervaloPresenciaMs = Integer.parseInt(configuracion.getProperty("presencia.intervalo.ms", "200"));
 
-                    // Añadirlo a la lista segura de hilos
-                    synchronized (clientesConectados) {
-                        clientesConectados.add(nuevoCliente);
-                    }
+        // Configuración general
+        rutaArchivoLog = configuracion.getProperty("archivo.log", "servidor.log");
+        contrasenaAdministrador = configuracion.getProperty("admin.password", "1234");
+
+        // Filtro de moderación: palabras prohibidas compiladas en un autómata
+        filtroModeracion = new FiltroModeracion(configuracion.getProperty("moderacion.archivo", "moderacion.txt"));
+        try {
+            filtroModeracion.recargar();
+        } catch (IOException | IllegalArgumentException e) {
+            e.printStackTrace();
+        }
+
+        // Archivos compartidos: el canal de datos se abre en main (la simulación no lo necesita)
+        gestorArchivos = new GestorArchivos(
+                Paths.get(configuracion.getProperty("archivos.carpeta", "spool")),
+                Integer.parseInt(configuracion.getProperty("archivos.puerto", "5001")),
+                Long.parseLong(configuracion.getProperty("archivos.tamano.maximo", "104857600")),
+                Long.parseLong(configuracion.getProperty("archivos.spool.maximo", "1073741824")),
+                Long.parseLong(configuracion.getProperty("archivos.caducidad.minutos", "60")) * 60 * 1000,
+                Long.parseLong(configuracion.getProperty("archivos.espera.segundos", "30")) * 1000,
+                Integer.parseInt(configuracion.getProperty("archivos.hilos", "4")));
+
+        // Carga de administradores desde el properties
+        String adminsTexto = configuracion.getProperty("admins", "");
+        if (!adminsTexto.isEmpty()) {
+            String[] arrayAdmins = adminsTexto.split(",");
+            for (String admin : arrayAdmins) listaAdministradores.add(admin.trim());
+        }
+
+        // Inicialización de salas base con el aforo inicial por defecto
+        registroSalas.put("recepcion", new Sala("recepcion", aforoInicialPorDefecto));
+        registroSalas.put("jiuston", new Sala("jiuston", aforoInicialPorDefecto));
+
+        // Hilo de tareas de fondo: indexado del historial, cambios de presencia y caducidad de archivos
+        ScheduledExecutorService tareasDeFondo = Executors.newSingleThreadScheduledExecutor(tarea -> {
+            Thread hilo = new Thread(tarea, "tareas-salas");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        tareasDeFondo.scheduleWithFixedDelay(Servidor::indexarHistoriales, intervaloIndexadoMs, intervaloIndexadoMs, TimeUnit.MILLISECONDS);
+        tareasDeFondo.scheduleWithFixedDelay(Servidor::publicarPresencias, intervaloPresenciaMs, intervaloPresenciaMs, TimeUnit.MILLISECONDS);
+        tareasDeFondo.scheduleWithFixedDelay(gestorArchivos::limpiarCaducados, 5, 5, TimeUnit.SECONDS);
+        tareasDeFondo.scheduleWithFixedDelay(Servidor::caducarCola, 1, 1, TimeUnit.SECONDS);
+
+        // Pool de tamaño fijo con cola acotada: si no hay hueco, execute lanza RejectedExecutionException
+        BlockingQueue<Runnable> colaEspera = maximoEnEspera > 0 ? new LinkedBlockingQueue<>(maximoEnEspera) : new SynchronousQueue<>();
+        gestorDeHilos = new ThreadPoolExecutor(maximoHilosSimultaneos, maximoHilosSimultaneos, 0L, TimeUnit.MILLISECONDS, colaEspera);
+    }
+
+    /**
+     * Sustituye el pool que atiende a los clientes. Lo usa SimuladorCarga para saber cuándo
+     * empieza y termina cada ManejadorCliente y ejecutar la simulación paso a paso.
+     */
+    static void setGestorDeHilos(ThreadPoolExecutor nuevoGestor) {
+        gestorDeHilos.shutdown();
+        gestorDeHilos = nuevoGestor;
+    }
+
+    /**
+     * Da de alta un cliente recién conectado y lanza su hilo de atención.
+     * Si el servidor está saturado (demasiadas conexiones o cola de espera llena)
+     * se le contesta enseguida que reintente más tarde y se cierra la conexión.
+     * Si le toca esperar en la cola se le avisa, para que no se quede sin respuesta.
+     * transporte es el canal con el cliente (socket real o en memoria).
+     * devuelve true si el cliente ha sido admitido.
+     */
+    public static boolean atenderCliente(Transporte transporte) {
+        if (conexionesActivas.incrementAndGet() > maximoConexiones) {
+            conexionesActivas.decrementAndGet();
+            rechazarCliente(transporte);
+            return false;
+        }
 
-                    // Ejecutar el hilo
-                    gestorDeHilos.execute(nuevoCliente);
+        ManejadorCliente nuevoCliente = new ManejadorCliente(transporte);
+
+        // Añadirlo a la lista segura de hilos
+        EventosChat.Cerrojo cerrojo = EventosChat.Cerrojo.iniciar("clientesConectados");
+        synchronized (clientesConectados) {
+            cerrojo.adquirido();
+            clientesConectados.add(nuevoCliente);
+        }
+        cerrojo.commit();
+
+        // Ejecutar el hilo. El cliente no escribe nada hasta tener su monitor (ver ManejadorCliente.run),
+        // así el aviso de cola nunca llega detrás del saludo
+        synchronized (nuevoCliente) {
+            try {
+                gestorDeHilos.execute(nuevoCliente);
+            } catch (RejectedExecutionException e) {
+                descartarCliente(nuevoCliente);
+                return false;
+            }
+            // Con el pool ya completo las tareas pasan siempre por la cola, aunque haya un hilo libre
+            // a punto de recogerlas: solo se avisa si de verdad están todos ocupados
+            if (gestorDeHilos.getActiveCount() >= gestorDeHilos.getMaximumPoolSize() && gestorDeHilos.getQueue().contains(nuevoCliente)) {
+                try {
+                    PrintWriter salida = new PrintWriter(transporte.getSalida(), true);
+                    salida.println("SISTEMA: en cola, esperando un hueco (máximo " + segundosEsperaCola + "s)");
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
             }
+        }
+        return true;
+    }
+
+    /**
+     * Rechaza a los clientes que llevan en la cola más de servidor.espera.cola.segundos.
+     * Una sesión ocupa su hilo mientras dura, así que sin este límite podrían esperar indefinidamente.
+     * La cola es FIFO: en cuanto aparece uno que no ha caducado se para.
+     */
+    private static void caducarCola() {
+        long limite = System.currentTimeMillis() - segundosEsperaCola * 1000L;
+        for (Runnable tarea : gestorDeHilos.getQueue().toArray(new Runnable[0])) {
+            ManejadorCliente cliente = (ManejadorCliente) tarea;
+            if (cliente.getMarcaTiempoConexion() > limite) break;
+            // remove() falla si un hilo lo acaba de sacar de la cola: entonces ya está siendo atendido
+            if (gestorDeHilos.remove(cliente)) descartarCliente(cliente);
+        }
+    }
 
+    /**
+     * Da de baja un cliente que no ha llegado a tener hilo y le contesta que el servidor está lleno.
+     */
+    private static void descartarCliente(ManejadorCliente cliente) {
+        EventosChat.Cerrojo cerrojo = EventosChat.Cerrojo.iniciar("clientesConectados");
+        synchronized (clientesConectados) {
+            cerrojo.adquirido();
+            clientesConectados.remove(cliente);
+        }
+        cerrojo.commit();
+        liberarConexion();
+        rechazarCliente(cliente.getTransporteCliente());
+    }
+
+    /**
+     * Libera la plaza de un cliente que se ha desconectado.
+     */
+    public static void liberarConexion() {
+        conexionesActivas.decrementAndGet();
+    }
+
+    /**
+     * Contesta a un cliente que el servidor está lleno y cierra su conexión.
+     */
+    private static void rechazarCliente(Transporte transporte) {
+        try {
+            PrintWriter salida = new PrintWriter(transporte.getSalida(), true);
+            salida.println("SISTEMA: servidor lleno, reintente en " + segundosReintento + "s");
+            transporte.cerrar();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -98,24 +304,80 @@ public class Servidor {
     /**
      * Verifica si un nombre de usuario ya está siendo usado en alguna sala.
      */
-    public static synchronized boolean esNombreUsuarioDisponible(String nombreUsuario) {
-        synchronized(registroSalas) {
-            for (Sala sala : registroSalas.values()) {
-                if (sala.getListaNicks().contains(nombreUsuario))
-                    return false;
+    public static boolean esNombreUsuarioDisponible(String nombreUsuario) {
+        boolean disponible = true;
+        EventosChat.Cerrojo cerrojoServidor = EventosChat.Cerrojo.iniciar("Servidor");
+        synchronized (Servidor.class) {
+            cerrojoServidor.adquirido();
+            EventosChat.Cerrojo cerrojoSalas = EventosChat.Cerrojo.iniciar("registroSalas");
+            synchronized(registroSalas) {
+                cerrojoSalas.adquirido();
+                for (Sala sala : registroSalas.values()) {
+                    if (sala.contieneUsuario(nombreUsuario)) {
+                        disponible = false;
+                        break;
+                    }
+                }
+            }
+            cerrojoSalas.commit();
+        }
+        cerrojoServidor.commit();
+        return disponible;
+    }
+
+    /**
+     * Aplica los mensajes pendientes al historial de todas las salas.
+     */
+    private static void indexarHistoriales() {
+        for (Sala sala : copiarSalas()) {
+            try {
+                sala.getHistorial().aplicarPendientes();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
             }
         }
-        return true;
+    }
+
+    /**
+     * Envía a los suscriptores de cada sala los cambios de presencia acumulados.
+     */
+    private static void publicarPresencias() {
+        for (Sala sala : copiarSalas()) {
+            try {
+                sala.publicarPresencia();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Devuelve una copia de las salas registradas para recorrerlas sin mantener el cerrojo global.
+     */
+    private static List<Sala> copiarSalas() {
+        List<Sala> salas;
+        EventosChat.Cerrojo cerrojo = EventosChat.Cerrojo.iniciar("registroSalas");
+        synchronized (registroSalas) {
+            cerrojo.adquirido();
+            salas = new ArrayList<>(registroSalas.values());
+        }
+        cerrojo.commit();
+        return salas;
     }
 
     /**
      * Escribe una línea en el archivo de registro (log) con fecha y hora.
      */
-    public static synchronized void registrarLog(String mensaje) {
-        try (PrintWriter escritor = new PrintWriter(new FileWriter(rutaArchivoLog, true))) {
-            escritor.println("[" + new Date() + "] " + mensaje);
-        } catch (IOException e) {
-            e.printStackTrace();
+    public static void registrarLog(String mensaje) {
+        EventosChat.Cerrojo cerrojo = EventosChat.Cerrojo.iniciar("Servidor");
+        synchronized (Servidor.class) {
+            cerrojo.adquirido();
+            try (PrintWriter escritor = new PrintWriter(new FileWriter(rutaArchivoLog, true))) {
+                escritor.println("[" + new Date() + "] " + mensaje);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
+        cerrojo.commit();
     }
 }
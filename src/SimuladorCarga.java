@@ -0,0 +1,451 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Banco de pruebas que arranca el Servidor dentro del mismo proceso y lo conecta
+ * a miles de sesiones simuladas mediante TransporteMemoria, sin abrir sockets.
+ *
+ * Tiene dos modos:
+ * - Por lotes (el normal): un planificador con un Random de semilla fija elige en cada paso
+ *   K sesiones distintas y el comando de cada una. Las K líneas se entregan a la vez, cada una
+ *   desde su propio hilo emisor, así que el servidor las procesa de forma concurrente; después
+ *   el planificador espera a que el servidor vuelva al reposo (todos sus hilos esperando en su
+ *   TransporteMemoria) antes de preparar el siguiente lote. La semilla fija qué se envía y en qué
+ *   lote, y la huella de la salida no depende del orden en que se intercalan las líneas: si dos
+ *   ejecuciones con la misma semilla dan huellas distintas, algún comando ha tenido un resultado
+ *   distinto según quién llegara antes. Con K = 1 solo avanza un cliente cada vez y la ejecución
+ *   es siempre la misma, lo que permite repetir un fallo para depurarlo.
+ * - Libre: K hilos emisores, cada uno con su grupo de sesiones, envían sus comandos tan rápido
+ *   como pueden sin esperar al servidor. Sirve para medir el rendimiento; la huella no se repite.
+ *
+ * Uso: java SimuladorCarga [sesiones] [pasos] [semilla] [K] [libre]
+ */
+public class SimuladorCarga {
+    private static final String[] PALABRAS = {"hola", "que", "tal", "jiuston", "tenemos", "un", "problema", "chat", "sala", "adios"};
+
+    private final Random aleatorio;
+    private final ContadorOcupados ocupados;
+    private final List<Sesion> sesiones = new ArrayList<>();
+    private final List<String> salasCreadas = new ArrayList<>();
+    private final String contrasenaAdmin;
+    private final LongAdder comandosEnviados = new LongAdder();
+    private final LongAdder lineasRecibidas = new LongAdder();
+    private final LongAdder conexionesRechazadas = new LongAdder();
+    // Suma de las huellas de cada línea: no depende del orden en que llegan
+    private final LongAdder huella = new LongAdder();
+    private final AtomicInteger siguienteId = new AtomicInteger();
+
+    /**
+     * Extremo cliente de una sesión simulada.
+     * Solo la usa un hilo cada vez: el planificador o el emisor de su grupo.
+     */
+    private static class Sesion {
+        final String nick;
+        final TransporteMemoria transporte;
+        final PrintWriter salida;
+        final InputStream entrada;
+        final byte[] buffer = new byte[8192];
+        // Huella de la línea que se está recibiendo, empezando por el nick de la sesión
+        final CRC32 lineaActual = new CRC32();
+
+        Sesion(String nick, TransporteMemoria transporte) {
+            this.nick = nick;
+            this.transporte = transporte;
+            this.salida = new PrintWriter(transporte.getSalida(), true);
+            this.entrada = transporte.getEntrada();
+            lineaActual.update(nick.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Cuenta los hilos del servidor que tienen trabajo pendiente. El pool de la simulación
+     * suma uno al recibir cada cliente y lo resta cuando su ManejadorCliente termina; como
+     * vigilante de los transportes resta uno mientras el hilo espera datos de su cliente.
+     */
+    private static class ContadorOcupados implements TransporteMemoria.Vigilante {
+        private int hilosOcupados;
+
+        synchronized void anotar(int cambio) {
+            hilosOcupados += cambio;
+            if (hilosOcupados == 0) notifyAll();
+        }
+
+        @Override
+        public void lectorEnEspera() {
+            anotar(-1);
+        }
+
+        @Override
+        public void lectorDespertado() {
+            anotar(1);
+        }
+
+        /**
+         * Espera a que ningún hilo del servidor tenga trabajo pendiente: todos están esperando
+         * la siguiente línea de su cliente o han terminado.
+         * devuelve false si no se llega al reposo en maximoMs (algún hilo se ha quedado bloqueado en otra cosa).
+         */
+        synchronized boolean esperarReposo(long maximoMs) throws InterruptedException {
+            long limite = System.currentTimeMillis() + maximoMs;
+            while (hilosOcupados > 0) {
+                long restante = limite - System.currentTimeMillis();
+                if (restante <= 0) return false;
+                wait(restante);
+            }
+            return true;
+        }
+    }
+
+    private SimuladorCarga(long semilla, String contrasenaAdmin, ContadorOcupados ocupados) {
+        this.aleatorio = new Random(semilla);
+        this.contrasenaAdmin = contrasenaAdmin;
+        this.ocupados = ocupados;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int numeroSesiones = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int pasos = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        long semilla = args.length > 2 ? Long.parseLong(args[2]) : 42;
+        int concurrencia = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+        boolean libre = args.length > 4 && args[4].equals("libre");
+        if (concurrencia < 1 || concurrencia > numeroSesiones)
+            throw new IllegalArgumentException("K debe estar entre 1 y el número de sesiones");
+
+        Properties configuracion = new Properties();
+        File archivoConfig = new File("chat.properties");
+        if (archivoConfig.exists()) {
+            try (FileInputStream entrada = new FileInputStream(archivoConfig)) {
+                configuracion.load(entrada);
+            }
+        }
+        // Un hilo por sesión y salas con sitio para todas, para que el aforo no enmascare la carga.
+        // El margen cubre las sesiones cerradas que aún no han salido de su sala al reconectar.
+        int margen = 16 + concurrencia;
+        configuracion.setProperty("servidor.numero.maximo.threads", String.valueOf(numeroSesiones + margen));
+        configuracion.setProperty("servidor.conexiones.maximas", String.valueOf(numeroSesiones + margen));
+        configuracion.setProperty("sala.aforo.maximo", String.valueOf(numeroSesiones + margen));
+        configuracion.setProperty("sala.aforo.creacion", String.valueOf(numeroSesiones + margen));
+        configuracion.setProperty("archivo.log", Files.createTempFile("simulacion", ".log").toString());
+        Servidor.configurar(configuracion);
+        ContadorOcupados ocupados = new ContadorOcupados();
+        Servidor.setGestorDeHilos(crearPoolControlado(numeroSesiones + margen, ocupados));
+
+        SimuladorCarga simulador = new SimuladorCarga(semilla, Servidor.getContrasenaAdministrador(), ocupados);
+        System.out.println("Simulación: " + numeroSesiones + " sesiones, " + pasos + " pasos, semilla " + semilla +
+                (libre ? ", " + concurrencia + " emisores libres" : ", lotes de " + concurrencia));
+
+        long inicio = System.nanoTime();
+        String admin = Servidor.getListaAdministradores().isEmpty() ? null : Servidor.getListaAdministradores().get(0);
+        if (admin != null) simulador.sesiones.add(simulador.conectar(admin, true));
+        while (simulador.sesiones.size() < numeroSesiones)
+            simulador.sesiones.add(simulador.conectar("sim" + simulador.siguienteId.getAndIncrement(), true));
+
+        try {
+            if (libre) {
+                simulador.ejecutarLibre(pasos, concurrencia, semilla, admin);
+                simulador.esperarServidor(120000);
+            } else {
+                ExecutorService emisores = Executors.newFixedThreadPool(concurrencia);
+                int lote = 0;
+                for (int paso = 0; paso < pasos; paso += concurrencia, lote++) {
+                    simulador.ejecutarLote(emisores, Math.min(concurrencia, pasos - paso), admin);
+                    if (lote % 1000 == 0) simulador.drenarTodas();
+                }
+                emisores.shutdown();
+                simulador.esperarServidor(10000);
+            }
+        } catch (IllegalStateException e) {
+            // Los hilos del servidor siguen vivos: hay que salir explícitamente
+            e.printStackTrace();
+            System.exit(2);
+        }
+        simulador.drenarTodas();
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+
+        long comandos = simulador.comandosEnviados.sum();
+        long lineas = simulador.lineasRecibidas.sum();
+        System.out.printf("Comandos enviados: %d (%.0f/s)%n", comandos, comandos / segundos);
+        System.out.printf("Líneas recibidas:  %d (%.0f/s)%n", lineas, lineas / segundos);
+        if (libre)
+            System.out.printf("Reintentos:        %d conexiones rechazadas por servidor lleno%n", simulador.conexionesRechazadas.sum());
+        else
+            System.out.printf("Huella de salida:  %016x%n", simulador.huella.sum());
+        System.out.printf("Tiempo total:      %.2fs%n", segundos);
+
+        boolean correcto = simulador.comprobarInvariantes();
+        for (Sesion sesion : simulador.sesiones) sesion.transporte.cerrar();
+        System.exit(correcto ? 0 : 1);
+    }
+
+    /**
+     * Pool de tamaño fijo que anota en el contador cada cliente pendiente o en marcha,
+     * de modo que esperarReposo sepa también de los hilos que aún no han llegado a leer.
+     */
+    private static ThreadPoolExecutor crearPoolControlado(int hilos, ContadorOcupados ocupados) {
+        return new ThreadPoolExecutor(hilos, hilos, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>()) {
+            @Override
+            public void execute(Runnable tarea) {
+                ocupados.anotar(1);
+                try {
+                    super.execute(tarea);
+                } catch (RejectedExecutionException e) {
+                    ocupados.anotar(-1);
+                    throw e;
+                }
+            }
+
+            @Override
+            protected void afterExecute(Runnable tarea, Throwable error) {
+                ocupados.anotar(-1);
+            }
+        };
+    }
+
+    /**
+     * Abre una sesión simulada y hace el login.
+     * Con esperar, cada línea se procesa antes de enviar la siguiente, como en el modo por lotes.
+     * En ese modo las sesiones anteriores ya han terminado del todo, así que el servidor no debería rechazarla.
+     * En el modo libre sí puede pasar, porque las sesiones que se acaban de cerrar aún no han liberado
+     * su plaza: igual que ClienteChat, espera un poco y lo vuelve a intentar.
+     */
+    private Sesion conectar(String nick, boolean esperar) throws InterruptedException {
+        TransporteMemoria[] extremos = TransporteMemoria.crearPar(ocupados);
+        while (!Servidor.atenderCliente(extremos[0])) {
+            if (esperar) throw new IllegalStateException("El servidor ha rechazado la sesión " + nick);
+            conexionesRechazadas.increment();
+            Thread.sleep(1);
+            extremos = TransporteMemoria.crearPar(ocupados);
+        }
+        Sesion sesion = new Sesion(nick, extremos[1]);
+        if (esperar) esperarServidor(10000);
+        sesion.salida.println(nick);
+        if (esperar) esperarServidor(10000);
+        if (Servidor.getListaAdministradores().contains(nick)) {
+            sesion.salida.println(contrasenaAdmin);
+            if (esperar) esperarServidor(10000);
+        }
+        return sesion;
+    }
+
+    /**
+     * Espera a que el servidor termine de procesar lo último que se le ha enviado.
+     * Si no lo consigue en maximoMs algún hilo se ha quedado bloqueado: es un fallo del servidor.
+     */
+    private void esperarServidor(long maximoMs) throws InterruptedException {
+        if (!ocupados.esperarReposo(maximoMs))
+            throw new IllegalStateException("El servidor no vuelve al reposo: posible bloqueo");
+    }
+
+    /**
+     * Elige (según la semilla) k sesiones distintas y un comando para cada una, los entrega
+     * a la vez desde k hilos emisores y espera a que el servidor los termine.
+     */
+    private void ejecutarLote(ExecutorService emisores, int k, String admin) throws InterruptedException {
+        Set<Integer> indices = new LinkedHashSet<>();
+        while (indices.size() < k) indices.add(aleatorio.nextInt(sesiones.size()));
+
+        List<Sesion> elegidas = new ArrayList<>(k);
+        List<String> comandos = new ArrayList<>(k);
+        for (int indice : indices) {
+            Sesion sesion = sesiones.get(indice);
+            elegidas.add(sesion);
+            comandos.add(elegirComando(aleatorio, sesiones, sesion, admin));
+        }
+
+        // La barrera hace que cada línea salga de un hilo distinto y todas a la vez
+        CyclicBarrier salida = new CyclicBarrier(k);
+        List<Callable<Void>> envios = new ArrayList<>(k);
+        for (int i = 0; i < k; i++) {
+            Sesion sesion = elegidas.get(i);
+            String comando = comandos.get(i);
+            envios.add(() -> {
+                salida.await();
+                if (comando == null) sesion.transporte.cerrar();
+                else sesion.salida.println(comando);
+                return null;
+            });
+        }
+        for (Future<Void> envio : emisores.invokeAll(envios)) {
+            try {
+                envio.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Fallo al entregar el lote", e.getCause());
+            }
+        }
+        esperarServidor(10000);
+
+        for (int i = 0; i < k; i++) {
+            Sesion sesion = elegidas.get(i);
+            drenar(sesion);
+            if (comandos.get(i) != null) {
+                comandosEnviados.increment();
+            } else {
+                // Reconexión: la sesión cerrada se sustituye por otra con un nick nuevo
+                sesiones.remove(sesion);
+                sesiones.add(conectar("sim" + siguienteId.getAndIncrement(), true));
+            }
+        }
+    }
+
+    /**
+     * Reparte las sesiones entre k hilos emisores que envían sus comandos sin esperar al servidor.
+     * Cada emisor tiene su propio Random derivado de la semilla y solo toca las sesiones de su grupo.
+     */
+    private void ejecutarLibre(int pasos, int k, long semilla, String admin) throws InterruptedException {
+        List<List<Sesion>> grupos = new ArrayList<>(k);
+        for (int i = 0; i < k; i++) grupos.add(new ArrayList<>());
+        for (int i = 0; i < sesiones.size(); i++) grupos.get(i % k).add(sesiones.get(i));
+
+        ExecutorService emisores = Executors.newFixedThreadPool(k);
+        List<Callable<Void>> tareas = new ArrayList<>(k);
+        for (int i = 0; i < k; i++) {
+            List<Sesion> grupo = grupos.get(i);
+            Random aleatorioGrupo = new Random(semilla * 31 + i);
+            int pasosGrupo = pasos / k + (i < pasos % k ? 1 : 0);
+            tareas.add(() -> {
+                for (int paso = 0; paso < pasosGrupo; paso++) {
+                    int indice = aleatorioGrupo.nextInt(grupo.size());
+                    Sesion sesion = grupo.get(indice);
+                    String comando = elegirComando(aleatorioGrupo, grupo, sesion, admin);
+                    drenar(sesion);
+                    if (comando == null) {
+                        sesion.transporte.cerrar();
+                        grupo.set(indice, conectar("sim" + siguienteId.getAndIncrement(), false));
+                    } else {
+                        sesion.salida.println(comando);
+                        comandosEnviados.increment();
+                    }
+                    if (paso % 1000 == 0) grupo.forEach(this::drenar);
+                }
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> tarea : emisores.invokeAll(tareas)) tarea.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Fallo en un emisor", e.getCause());
+        } finally {
+            emisores.shutdown();
+        }
+
+        sesiones.clear();
+        for (List<Sesion> grupo : grupos) sesiones.addAll(grupo);
+    }
+
+    /**
+     * Elige al azar el comando que envía la sesión.
+     * devuelve null si la sesión debe cerrarse y entrar otra con un nick nuevo.
+     */
+    private String elegirComando(Random aleatorio, List<Sesion> candidatas, Sesion sesion, String admin) {
+        int dado = aleatorio.nextInt(100);
+
+        if (sesion.nick.equals(admin)) {
+            synchronized (salasCreadas) {
+                if (dado < 40) {
+                    String sala = "simsala" + aleatorio.nextInt(8);
+                    if (!salasCreadas.contains(sala)) salasCreadas.add(sala);
+                    return "/crea " + sala;
+                } else if (dado < 70 && !salasCreadas.isEmpty()) {
+                    return "/elimina_forzado " + salasCreadas.get(aleatorio.nextInt(salasCreadas.size()));
+                }
+            }
+            return "/mensaje_todos " + frase(aleatorio);
+        } else if (dado < 50) {
+            return "/mensaje " + frase(aleatorio);
+        } else if (dado < 65) {
+            return "/unirse " + salaAleatoria(aleatorio);
+        } else if (dado < 75) {
+            return "/usuarios " + salaAleatoria(aleatorio);
+        } else if (dado < 85) {
+            return "/ping " + candidatas.get(aleatorio.nextInt(candidatas.size())).nick;
+        } else if (dado < 95) {
+            return "/salas";
+        }
+        return null;
+    }
+
+    private String salaAleatoria(Random aleatorio) {
+        synchronized (salasCreadas) {
+            int i = aleatorio.nextInt(salasCreadas.size() + 1);
+            return i == salasCreadas.size() ? "recepcion" : salasCreadas.get(i);
+        }
+    }
+
+    private static String frase(Random aleatorio) {
+        StringBuilder frase = new StringBuilder();
+        int palabras = 1 + aleatorio.nextInt(6);
+        for (int i = 0; i < palabras; i++)
+            frase.append(PALABRAS[aleatorio.nextInt(PALABRAS.length)]).append(' ');
+        return frase.toString().trim();
+    }
+
+    /**
+     * Consume sin bloquear lo que el servidor haya enviado a la sesión, contando las líneas
+     * y sumando a la huella la de cada línea completa.
+     */
+    private void drenar(Sesion sesion) {
+        try {
+            int disponibles;
+            while ((disponibles = sesion.entrada.available()) > 0) {
+                int leidos = sesion.entrada.read(sesion.buffer, 0, Math.min(disponibles, sesion.buffer.length));
+                int inicioLinea = 0;
+                for (int i = 0; i < leidos; i++) {
+                    if (sesion.buffer[i] != '\n') continue;
+                    sesion.lineaActual.update(sesion.buffer, inicioLinea, i - inicioLinea);
+                    huella.add(sesion.lineaActual.getValue());
+                    sesion.lineaActual.reset();
+                    sesion.lineaActual.update(sesion.nick.getBytes(StandardCharsets.UTF_8));
+                    lineasRecibidas.increment();
+                    inicioLinea = i + 1;
+                }
+                sesion.lineaActual.update(sesion.buffer, inicioLinea, leidos - inicioLinea);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void drenarTodas() {
+        for (Sesion sesion : sesiones) drenar(sesion);
+    }
+
+    /**
+     * Comprueba que el estado del servidor es coherente con las sesiones abiertas:
+     * cada usuario está en una sola sala y en ninguna sala sobra ni falta nadie.
+     */
+    private boolean comprobarInvariantes() {
+        Map<String, String> ubicacion = new HashMap<>();
+        boolean correcto = true;
+        synchronized (Servidor.getRegistroSalas()) {
+            for (Sala sala : Servidor.getRegistroSalas().values()) {
+                synchronized (sala) {
+                    for (String nick : sala.getListaNicks()) {
+                        String previa = ubicacion.put(nick, sala.getNombre());
+                        if (previa != null) {
+                            System.out.println("INCONSISTENCIA: " + nick + " está en " + previa + " y en " + sala.getNombre());
+                            correcto = false;
+                        }
+                    }
+                }
+            }
+        }
+        for (Sesion sesion : sesiones) {
+            if (!ubicacion.containsKey(sesion.nick)) {
+                System.out.println("INCONSISTENCIA: " + sesion.nick + " no está en ninguna sala");
+                correcto = false;
+            }
+        }
+        if (ubicacion.size() != sesiones.size()) {
+            System.out.println("INCONSISTENCIA: " + ubicacion.size() + " usuarios en salas para " + sesiones.size() + " sesiones");
+            correcto = false;
+        }
+        System.out.println(correcto ? "Invariantes OK" : "Invariantes con errores");
+        return correcto;
+    }
+}
@@ -0,0 +1,26 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Canal de comunicación entre el servidor y un cliente.
+ * Permite que ManejadorCliente funcione igual sobre un socket real (TransporteSocket)
+ * o sobre tuberías en memoria (TransporteMemoria) para las simulaciones.
+ */
+public interface Transporte {
+
+    /**
+     * Devuelve el flujo por el que llegan los datos del otro extremo.
+     */
+    InputStream getEntrada() throws IOException;
+
+    /**
+     * Devuelve el flujo por el que se envían datos al otro extremo.
+     */
+    OutputStream getSalida() throws IOException;
+
+    /**
+     * Cierra el canal en ambos sentidos.
+     */
+    void cerrar() throws IOException;
+}
@@ -0,0 +1,183 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Transporte en memoria formado por dos tuberías, una para cada sentido.
+ * Se crean siempre por parejas con crearPar(): lo que se escribe en un extremo
+ * se lee en el otro. No usa red, así que se pueden simular miles de sesiones.
+ */
+public class TransporteMemoria implements Transporte {
+    private final Tuberia entrada;
+    private final Tuberia salida;
+
+    private TransporteMemoria(Tuberia entrada, Tuberia salida) {
+        this.entrada = entrada;
+        this.salida = salida;
+    }
+
+    /**
+     * Recibe un aviso cada vez que el lector del extremo del servidor se queda esperando
+     * datos en una tubería vacía y cada vez que vuelven a llegarle.
+     * SimuladorCarga lo usa para saber cuándo el servidor ha terminado todo su trabajo.
+     */
+    public interface Vigilante {
+        void lectorEnEspera();
+
+        void lectorDespertado();
+    }
+
+    /**
+     * Crea los dos extremos conectados de un transporte en memoria.
+     * devuelve un array con el extremo del servidor en la posición 0 y el del cliente en la 1.
+     */
+    public static TransporteMemoria[] crearPar() {
+        return crearPar(null);
+    }
+
+    /**
+     * Igual que crearPar(), pero avisando a vigilante de las esperas del lector del servidor.
+     */
+    public static TransporteMemoria[] crearPar(Vigilante vigilante) {
+        Tuberia haciaServidor = new Tuberia(vigilante);
+        Tuberia haciaCliente = new Tuberia(null);
+        return new TransporteMemoria[] {
+                new TransporteMemoria(haciaServidor, haciaCliente),
+                new TransporteMemoria(haciaCliente, haciaServidor)
+        };
+    }
+
+    @Override
+    public InputStream getEntrada() {
+        return entrada.lector;
+    }
+
+    @Override
+    public OutputStream getSalida() {
+        return salida.escritor;
+    }
+
+    @Override
+    public void cerrar() {
+        entrada.cerrar();
+        salida.cerrar();
+    }
+
+    /**
+     * Tubería de bytes sin límite de capacidad: escribir nunca bloquea
+     * y leer bloquea hasta que haya datos o la tubería se cierre.
+     * Al contrario que PipedInputStream, no depende de qué hilo escribe.
+     */
+    private static class Tuberia {
+        // Solo las tuberías hacia el servidor pueden estar vigiladas; null si no lo están
+        private final Vigilante vigilante;
+        private byte[] datos = new byte[256];
+        private int inicio;
+        private int fin;
+        private boolean cerrada;
+        private boolean lectorEnReposo;
+
+        Tuberia(Vigilante vigilante) {
+            this.vigilante = vigilante;
+        }
+
+        final InputStream lector = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int desde, int longitud) throws IOException {
+                return leer(b, desde, longitud);
+            }
+
+            @Override
+            public int available() {
+                synchronized (Tuberia.this) {
+                    return fin - inicio;
+                }
+            }
+
+            @Override
+            public void close() {
+                cerrar();
+            }
+        };
+
+        final OutputStream escritor = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int desde, int longitud) throws IOException {
+                escribir(b, desde, longitud);
+            }
+
+            @Override
+            public void close() {
+                cerrar();
+            }
+        };
+
+        synchronized int leer(byte[] b, int desde, int longitud) throws IOException {
+            if (longitud == 0) return 0;
+            while (inicio == fin && !cerrada) {
+                if (vigilante != null && !lectorEnReposo) {
+                    lectorEnReposo = true;
+                    vigilante.lectorEnEspera();
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    despertarLector();
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Lectura interrumpida", e);
+                }
+            }
+            if (inicio == fin) return -1;
+            int n = Math.min(longitud, fin - inicio);
+            System.arraycopy(datos, inicio, b, desde, n);
+            inicio += n;
+            return n;
+        }
+
+        synchronized void escribir(byte[] b, int desde, int longitud) throws IOException {
+            if (cerrada) throw new IOException("Tubería cerrada");
+            if (fin + longitud > datos.length) {
+                // Compactar y, si no basta, ampliar el búfer
+                int pendientes = fin - inicio;
+                byte[] destino = pendientes + longitud > datos.length ? new byte[Math.max(datos.length * 2, pendientes + longitud)] : datos;
+                System.arraycopy(datos, inicio, destino, 0, pendientes);
+                datos = destino;
+                inicio = 0;
+                fin = pendientes;
+            }
+            System.arraycopy(b, desde, datos, fin, longitud);
+            fin += longitud;
+            despertarLector();
+            notifyAll();
+        }
+
+        synchronized void cerrar() {
+            cerrada = true;
+            despertarLector();
+            notifyAll();
+        }
+
+        /**
+         * Avisa al vigilante de que el lector que esperaba tiene datos. Se hace aquí, con el
+         * cerrojo de la tubería, y no cuando el lector despierta: así quien escribe sabe que
+         * el servidor ya no está en reposo en cuanto termina de escribir.
+         */
+        private void despertarLector() {
+            if (lectorEnReposo) {
+                lectorEnReposo = false;
+                vigilante.lectorDespertado();
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Transporte sobre una conexión TCP real.
+ */
+public class TransporteSocket implements Transporte {
+    private final Socket socket;
+
+    public TransporteSocket(Socket socket) {
+        this.socket = socket;
+    }
+
+    @Override
+    public InputStream getEntrada() throws IOException {
+        return socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getSalida() throws IOException {
+        return socket.getOutputStream();
+    }
+
+    @Override
+    public void cerrar() throws IOException {
+        socket.close();
+    }
+}